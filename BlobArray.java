@@ -0,0 +1,217 @@
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Many blobs stored as a structure of arrays: blob i is at (x[i],y[i]) with velocity (dx[i],dy[i]), radius r[i],
+ * growth dr[i], and a type tag, rather than a Blob object each.
+ * stepAll() then moves them all in a few tight loops over primitive arrays, with no virtual step() call per blob,
+ * and the bounce off the walls (as in Bouncer.step) done by clamping and a conditional negate rather than
+ * if/else chains, which the JIT can turn into branch-free code.
+ * Every blob has a bounding rectangle to bounce inside; for blobs that don't bounce it's infinite, so the
+ * same loop handles all types.
+ * Wanderers' random steps come from a SplittableRandom owned by the array, not the shared Math.random generator.
+ * Not thread-safe.
+ */
+public class BlobArray {
+	public static final byte BLOB = 0, BOUNCER = 1, WANDERER = 2;	// type tags
+
+	private int size;								// number of blobs, in indices [0,size)
+	private double[] x, y;							// position
+	private double[] dx, dy;						// velocity
+	private double[] r, dr;							// radius and growth step
+	private double[] xmin, ymin, xmax, ymax;		// area to bounce inside (infinite for blobs that don't bounce)
+	private byte[] type;							// BLOB, BOUNCER, or WANDERER
+	private int wanderers;							// how many of the blobs are WANDERERs
+	private final SplittableRandom random;			// for wanderers and bouncers' initial velocities
+
+	public BlobArray() {
+		this(16, new SplittableRandom());
+	}
+
+	/**
+	 * @param capacity	how many blobs to make room for up front
+	 * @param random	the source of randomness (e.g., new SplittableRandom(seed) for repeatable runs)
+	 */
+	public BlobArray(int capacity, SplittableRandom random) {
+		capacity = Math.max(capacity, 1);
+		x = new double[capacity]; y = new double[capacity];
+		dx = new double[capacity]; dy = new double[capacity];
+		r = new double[capacity]; dr = new double[capacity];
+		xmin = new double[capacity]; ymin = new double[capacity];
+		xmax = new double[capacity]; ymax = new double[capacity];
+		type = new byte[capacity];
+		this.random = random;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Adds a plain blob (which moves and grows steadily, by its velocity and growth step), with radius 5 and no motion
+	 * @return	its index
+	 */
+	public int addBlob(double x0, double y0) {
+		return add(BLOB, x0, y0, 5, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY,
+				Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY);
+	}
+
+	/**
+	 * Adds a bouncer, as new Bouncer(x0, y0, xmax, ymax) would: radius 5, bouncing inside (0,0)-(xmax,ymax),
+	 * with a random velocity between -r and +r in each direction
+	 * @return	its index
+	 */
+	public int addBouncer(double x0, double y0, double xmax, double ymax) {
+		int i = add(BOUNCER, x0, y0, 5, 0, 0, xmax, ymax);
+		dx[i] = 2 * r[i] * (random.nextDouble() - 0.5);
+		dy[i] = 2 * r[i] * (random.nextDouble() - 0.5);
+		return i;
+	}
+
+	/**
+	 * Adds a wanderer, which takes a random step between -1 and +1 in each direction every time
+	 * @return	its index
+	 */
+	public int addWanderer(double x0, double y0) {
+		return add(WANDERER, x0, y0, 5, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY,
+				Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY);
+	}
+
+	// Getters and setters for blob i, 0 through size()-1
+
+	public byte getType(int i) {
+		return type[i];
+	}
+
+	public double getX(int i) {
+		return x[i];
+	}
+
+	public void setX(int i, double px) {
+		x[i] = px;
+	}
+
+	public double getY(int i) {
+		return y[i];
+	}
+
+	public void setY(int i, double py) {
+		y[i] = py;
+	}
+
+	public double getR(int i) {
+		return r[i];
+	}
+
+	public void setR(int i, double radius) {
+		r[i] = radius;
+	}
+
+	public void setVelocity(int i, double vx, double vy) {
+		dx[i] = vx;
+		dy[i] = vy;
+	}
+
+	public void setGrowth(int i, double growth) {
+		dr[i] = growth;
+	}
+
+	/**
+	 * Removes blob i by moving the last blob into its place (so that one's index changes to i)
+	 */
+	public void remove(int i) {
+		if (i < 0 || i >= size) throw new IndexOutOfBoundsException("index "+i+" in array of size "+size);
+		if (type[i] == WANDERER) wanderers--;
+		copy(--size, i);
+	}
+
+	/**
+	 * Removes the blobs whose flags are set (e.g., colliders to destroy), keeping the rest in order
+	 * @param removed	removed[i] says whether to remove blob i; at least size() long
+	 */
+	public void removeAll(boolean[] removed) {
+		int kept = 0;
+		for (int i = 0; i < size; i++) {
+			if (!removed[i]) copy(i, kept++);
+			else if (type[i] == WANDERER) wanderers--;
+		}
+		size = kept;
+	}
+
+	/**
+	 * Moves every blob one step, as its type's step() would: only plain blobs grow (Bouncer and Wanderer ignore their
+	 * growth steps), and only bouncers bounce
+	 */
+	public void stepAll() {
+		int n = size;
+		// Wanderers pick new velocities
+		if (wanderers > 0) {
+			for (int i = 0; i < n; i++) {
+				if (type[i] == WANDERER) {
+					dx[i] = 2 * (random.nextDouble() - 0.5);
+					dy[i] = 2 * (random.nextDouble() - 0.5);
+				}
+			}
+		}
+		// Everybody moves, plain blobs grow, and anybody past a wall is put back against it, moving the other way
+		// (a no-op for blobs whose walls are infinitely far).
+		// The clamps are plain comparisons, which compile to conditional moves; Math.min and max are slower
+		// here, as they also have to get NaN and -0 right.
+		for (int i = 0; i < n; i++) {
+			double ri = type[i] == BLOB ? r[i] + dr[i] : r[i];
+			r[i] = ri;
+			double nx = x[i] + dx[i], right = xmax[i] - ri, left = xmin[i] + ri;
+			double cx = nx > right ? right : nx;
+			cx = cx < left ? left : cx;
+			dx[i] = cx == nx ? dx[i] : -dx[i];
+			x[i] = cx;
+			double ny = y[i] + dy[i], bottom = ymax[i] - ri, top = ymin[i] + ri;
+			double cy = ny > bottom ? bottom : ny;
+			cy = cy < top ? top : cy;
+			dy[i] = cy == ny ? dy[i] : -dy[i];
+			y[i] = cy;
+		}
+	}
+
+	/**
+	 * Makes a Blob object for blob i, e.g., for drawing (a snapshot: it doesn't track the array)
+	 */
+	public Blob toBlob(int i) {
+		Blob blob = new Blob(x[i], y[i], r[i]);
+		blob.setVelocity(dx[i], dy[i]);
+		blob.setGrowth(dr[i]);
+		return blob;
+	}
+
+	private int add(byte t, double x0, double y0, double r0, double left, double top, double right, double bottom) {
+		if (size == x.length) grow();
+		int i = size++;
+		type[i] = t;
+		if (t == WANDERER) wanderers++;
+		x[i] = x0; y[i] = y0;
+		dx[i] = 0; dy[i] = 0;
+		r[i] = r0; dr[i] = 0;
+		xmin[i] = left; ymin[i] = top; xmax[i] = right; ymax[i] = bottom;
+		return i;
+	}
+
+	// Copy blob from's fields over blob to's
+	private void copy(int from, int to) {
+		if (from == to) return;
+		type[to] = type[from];
+		x[to] = x[from]; y[to] = y[from];
+		dx[to] = dx[from]; dy[to] = dy[from];
+		r[to] = r[from]; dr[to] = dr[from];
+		xmin[to] = xmin[from]; ymin[to] = ymin[from]; xmax[to] = xmax[from]; ymax[to] = ymax[from];
+	}
+
+	private void grow() {
+		int capacity = x.length * 2;
+		x = Arrays.copyOf(x, capacity); y = Arrays.copyOf(y, capacity);
+		dx = Arrays.copyOf(dx, capacity); dy = Arrays.copyOf(dy, capacity);
+		r = Arrays.copyOf(r, capacity); dr = Arrays.copyOf(dr, capacity);
+		xmin = Arrays.copyOf(xmin, capacity); ymin = Arrays.copyOf(ymin, capacity);
+		xmax = Arrays.copyOf(xmax, capacity); ymax = Arrays.copyOf(ymax, capacity);
+		type = Arrays.copyOf(type, capacity);
+	}
+}
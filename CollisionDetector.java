@@ -0,0 +1,345 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Broad-phase collision detection by sweep-and-prune: sorts the blobs by the low edge of their bounding boxes
+ * along one axis, then sweeps along it keeping the blobs whose boxes are still open, so each blob is only compared
+ * against those that overlap it on that axis.
+ * The axis is whichever the blobs are more spread out along (by variance), so fewer boxes are open at once.
+ * Finds each colliding pair exactly once, using both blobs' own radii; when only the colliders are wanted,
+ * they're flagged as the sweep goes rather than collecting the pairs (of which there can be far more than blobs).
+ * Keeps its working arrays between calls, so reuse one detector (from one thread at a time).
+ * 
+ * Can also sweep the boxes around each blob's whole motion over a step, to catch fast blobs that pass through
+ * each other between the start and end positions, along with the time of impact.
+ * 
+ * Can also run per-blob queries against a PointQuadtree in parallel, sharded across a fork-join pool.
+ */
+public class CollisionDetector {
+	/**
+	 * Two blobs that are in contact
+	 */
+	public static class Pair {
+		private final Blob a, b;
+		private final double time;		// when during the step they first touched, 0 (start) to 1 (end)
+
+		public Pair(Blob a, Blob b) {
+			this(a, b, 1);
+		}
+
+		public Pair(Blob a, Blob b, double time) {
+			this.a = a;
+			this.b = b;
+			this.time = time;
+		}
+
+		public Blob getA() {
+			return a;
+		}
+
+		public Blob getB() {
+			return b;
+		}
+
+		/**
+		 * Returns when during the step the blobs first touched, as a fraction of the step
+		 * (1 for pairs found from the end positions alone)
+		 */
+		public double getTime() {
+			return time;
+		}
+
+		public String toString() {
+			return "("+a.getX()+","+a.getY()+")~("+b.getX()+","+b.getY()+")";
+		}
+	}
+
+	private double[] xs = new double[0], ys = new double[0], rs = new double[0];	// copied out of the blobs
+	private double[] lefts = new double[0];		// low edge of each bounding box along the sweep axis, the sort key
+	private double[] rights = new double[0];	// high edge of each bounding box along the sweep axis, when sweeping motion
+	private int[] order = new int[0];			// blob indices sorted by low edge
+	private int[] active = new int[0];			// indices of blobs whose boxes the sweep is inside
+	private IntList pairs = new IntList();		// indices of the colliding pairs found, two at a time
+	private ForkJoinPool pool;					// runs parallel queries
+
+	/**
+	 * Initializes a detector whose parallel queries use the common fork-join pool
+	 */
+	public CollisionDetector() {
+		this(ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Initializes a detector whose parallel queries use the given pool
+	 * (e.g., new ForkJoinPool(4) to limit them to 4 threads)
+	 */
+	public CollisionDetector(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Finds all pairs of blobs in contact (center distance at most the sum of their radii)
+	 * @return	each colliding pair once
+	 */
+	public List<Pair> findCollisions(List<? extends Blob> blobs) {
+		sweep(blobs, null);
+		List<Pair> found = new ArrayList<Pair>(pairs.size() / 2);
+		for (int k = 0; k < pairs.size(); k += 2) {
+			found.add(new Pair(blobs.get(pairs.get(k)), blobs.get(pairs.get(k+1))));
+		}
+		return found;
+	}
+
+	/**
+	 * Finds all blobs in contact with at least one other blob
+	 * @return	each colliding blob once, in the order they appear in blobs
+	 */
+	public List<Blob> findColliders(List<? extends Blob> blobs) {
+		boolean[] collided = new boolean[blobs.size()];
+		sweep(blobs, collided);
+		List<Blob> found = new ArrayList<Blob>();
+		for (int i = 0; i < collided.length; i++) {
+			if (collided[i]) found.add(blobs.get(i));
+		}
+		return found;
+	}
+
+	/**
+	 * Finds all pairs of blobs that touched at some time during a step (continuous collision detection),
+	 * assuming each moved in a straight line at constant speed from its old position to its current one.
+	 * The sweep is over the bounding boxes of each blob's whole motion, and each candidate pair's time of impact
+	 * comes from solving for when the distance between their centers first equals the sum of their radii.
+	 * @param oldXs		x coordinate of each blob at the start of the step, in the same order as blobs
+	 * @param oldYs		y coordinate of each blob at the start of the step
+	 * @return			each colliding pair once, with the fraction of the step at which they first touched
+	 */
+	public List<Pair> findSweptCollisions(List<? extends Blob> blobs, double[] oldXs, double[] oldYs) {
+		int n = blobs.size();
+		if (oldXs.length < n || oldYs.length < n) throw new IllegalArgumentException("need an old position for each blob");
+		if (xs.length < n) {
+			xs = new double[n]; ys = new double[n]; rs = new double[n];
+			lefts = new double[n]; order = new int[n]; active = new int[n];
+		}
+		if (rights.length < n) rights = new double[n];
+		for (int i = 0; i < n; i++) {
+			Blob blob = blobs.get(i);
+			xs[i] = blob.getX(); ys[i] = blob.getY(); rs[i] = blob.getR();
+		}
+		// Sweep along the axis with more spread (a for that axis, b for the other)
+		boolean byX = sweepByX(n);
+		double[] as = byX ? xs : ys, bs = byX ? ys : xs, oldAs = byX ? oldXs : oldYs, oldBs = byX ? oldYs : oldXs;
+		for (int i = 0; i < n; i++) {
+			lefts[i] = Math.min(oldAs[i], as[i]) - rs[i];
+			rights[i] = Math.max(oldAs[i], as[i]) + rs[i];
+			order[i] = i;
+		}
+		sort(0, n - 1);
+
+		List<Pair> found = new ArrayList<Pair>();
+		int numActive = 0;
+		for (int k = 0; k < n; k++) {
+			int i = order[k];
+			int kept = 0;
+			for (int a = 0; a < numActive; a++) {
+				int j = active[a];
+				if (rights[j] < lefts[i]) continue;
+				active[kept++] = j;
+				// Boxes must overlap on the other axis too, before solving for the time
+				double ri = rs[i], rj = rs[j];
+				if (Math.max(oldBs[i], bs[i]) + ri < Math.min(oldBs[j], bs[j]) - rj
+						|| Math.max(oldBs[j], bs[j]) + rj < Math.min(oldBs[i], bs[i]) - ri) continue;
+				double t = timeOfImpact(oldXs[i], oldYs[i], xs[i] - oldXs[i], ys[i] - oldYs[i],
+						oldXs[j], oldYs[j], xs[j] - oldXs[j], ys[j] - oldYs[j], ri + rj);
+				if (t >= 0) {
+					found.add(i < j ? new Pair(blobs.get(i), blobs.get(j), t) : new Pair(blobs.get(j), blobs.get(i), t));
+				}
+			}
+			active[kept++] = i;
+			numActive = kept;
+		}
+		return found;
+	}
+
+	/**
+	 * Finds the fraction of the step, 0 to 1, at which two circles moving in straight lines first touch, or -1 if they don't.
+	 * With d the difference of their centers at the start and v the difference of their motions,
+	 * they touch when |d + t v|^2 = rr^2, a quadratic in t; the smaller root is when they first meet.
+	 * @param ax	first circle's center x at the start
+	 * @param ay	first circle's center y at the start
+	 * @param avx	first circle's x motion over the step
+	 * @param avy	first circle's y motion over the step
+	 * @param bx	second circle's center x at the start
+	 * @param by	second circle's center y at the start
+	 * @param bvx	second circle's x motion over the step
+	 * @param bvy	second circle's y motion over the step
+	 * @param rr	sum of the radii
+	 */
+	public static double timeOfImpact(double ax, double ay, double avx, double avy,
+			double bx, double by, double bvx, double bvy, double rr) {
+		double dx = ax - bx, dy = ay - by, vx = avx - bvx, vy = avy - bvy;
+		double c = dx*dx + dy*dy - rr*rr;
+		if (c <= 0) return 0;						// already touching at the start
+		double a = vx*vx + vy*vy, b = 2 * (dx*vx + dy*vy);
+		if (a == 0 || b >= 0) return -1;			// not moving relative to each other, or moving apart
+		double disc = b*b - 4*a*c;
+		if (disc < 0) return -1;					// closest approach is still too far
+		double t = (-b - Math.sqrt(disc)) / (2*a);
+		return t <= 1 ? t : -1;
+	}
+
+	/**
+	 * Finds all blobs in contact with another blob (center distance at most the sum of their radii, as findColliders(blobs)
+	 * has it), querying the index (any tree, or snapshot of one) for each blob in parallel.
+	 * The index must hold the blobs at their current positions, and must not change until this returns.
+	 * Each task records its own blobs' results in its own slice of a shared array, so there's no locking.
+	 * @return	each colliding blob once, in the order they appear in blobs
+	 */
+	public List<Blob> findColliders(PointIndex<? extends Blob> tree, List<? extends Blob> blobs) {
+		boolean[] collided = new boolean[blobs.size()];
+		if (tree != null && !blobs.isEmpty()) {
+			double maxR = 0;
+			for (Blob blob : blobs) maxR = Math.max(maxR, blob.getR());
+			int grain = Math.max(256, blobs.size() / (8 * pool.getParallelism()));
+			pool.invoke(new QueryTask(tree, blobs, maxR, collided, 0, blobs.size(), grain));
+		}
+		List<Blob> found = new ArrayList<Blob>();
+		for (int i = 0; i < collided.length; i++) {
+			if (collided[i]) found.add(blobs.get(i));
+		}
+		return found;
+	}
+
+	/**
+	 * Runs the collision queries for blobs [from,to), splitting in half until the ranges are small enough.
+	 * Each blob's query reaches out to its radius plus the largest, which takes in everything that could be touching it;
+	 * only if it finds anything besides the blob itself are those checked against the blob's and their own radii.
+	 */
+	private static class QueryTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final PointIndex<? extends Blob> tree;
+		private final List<? extends Blob> blobs;
+		private final double maxR;				// the largest radius of any blob
+		private final boolean[] collided;		// written only at this task's indices
+		private final int from, to, grain;
+
+		QueryTask(PointIndex<? extends Blob> tree, List<? extends Blob> blobs, double maxR, boolean[] collided,
+				int from, int to, int grain) {
+			this.tree = tree; this.blobs = blobs; this.maxR = maxR; this.collided = collided;
+			this.from = from; this.to = to; this.grain = grain;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > grain) {
+				int mid = (from + to) >>> 1;
+				invokeAll(new QueryTask(tree, blobs, maxR, collided, from, mid, grain),
+						new QueryTask(tree, blobs, maxR, collided, mid, to, grain));
+				return;
+			}
+			for (int i = from; i < to; i++) {
+				Blob blob = blobs.get(i);
+				double x = blob.getX(), y = blob.getY(), r = blob.getR();
+				if (tree.countInCircle(x, y, r + maxR, 2) > 1) {
+					boolean[] hit = new boolean[1];
+					tree.findInCircle(x, y, r + maxR, (Blob other) -> {
+						if (other != blob && Geometry.pointInCircle(other.getX(), other.getY(), x, y, r + other.getR())) hit[0] = true;
+					});
+					collided[i] = hit[0];
+				}
+			}
+		}
+	}
+
+	// Find the colliding blobs: if collided is null, fill pairs with their indices, smaller index first;
+	// otherwise just set collided[i] for each blob i in a pair
+	private void sweep(List<? extends Blob> blobs, boolean[] collided) {
+		int n = blobs.size();
+		if (xs.length < n) {
+			xs = new double[n]; ys = new double[n]; rs = new double[n];
+			lefts = new double[n]; order = new int[n]; active = new int[n];
+		}
+		for (int i = 0; i < n; i++) {
+			Blob blob = blobs.get(i);
+			xs[i] = blob.getX(); ys[i] = blob.getY(); rs[i] = blob.getR();
+		}
+		double[] as = sweepByX(n) ? xs : ys;
+		for (int i = 0; i < n; i++) {
+			lefts[i] = as[i] - rs[i];
+			order[i] = i;
+		}
+		sort(0, n - 1);
+
+		pairs.clear();
+		int numActive = 0;
+		for (int k = 0; k < n; k++) {
+			int i = order[k];
+			int kept = 0;
+			for (int a = 0; a < numActive; a++) {
+				int j = active[a];
+				// Boxes that end before this one starts can't touch it or anything after it
+				if (as[j] + rs[j] < lefts[i]) continue;
+				active[kept++] = j;
+				double dx = xs[i] - xs[j], dy = ys[i] - ys[j], rr = rs[i] + rs[j];
+				if (dx*dx + dy*dy <= rr*rr) {
+					if (collided != null) {
+						collided[i] = collided[j] = true;
+					}
+					else {
+						pairs.add(Math.min(i, j));
+						pairs.add(Math.max(i, j));
+					}
+				}
+			}
+			active[kept++] = i;
+			numActive = kept;
+		}
+	}
+
+	// Whether the first n blobs (already copied into xs and ys) vary more in x than in y
+	private boolean sweepByX(int n) {
+		double sx = 0, sy = 0, sxx = 0, syy = 0;
+		for (int i = 0; i < n; i++) {
+			sx += xs[i]; sxx += xs[i] * xs[i];
+			sy += ys[i]; syy += ys[i] * ys[i];
+		}
+		// Comparing n^2 times the variances
+		return n * sxx - sx * sx >= n * syy - sy * sy;
+	}
+
+	// Quicksort order[lo..hi] by lefts, finishing small ranges with insertion sort
+	private void sort(int lo, int hi) {
+		while (hi - lo > 16) {
+			double pivot = lefts[order[(lo + hi) >>> 1]];
+			int i = lo, j = hi;
+			while (i <= j) {
+				while (lefts[order[i]] < pivot) i++;
+				while (pivot < lefts[order[j]]) j--;
+				if (i <= j) {
+					int tmp = order[i]; order[i] = order[j]; order[j] = tmp;
+					i++; j--;
+				}
+			}
+			// Recurse on the smaller side, loop on the larger
+			if (j - lo < hi - i) {
+				sort(lo, j);
+				lo = i;
+			}
+			else {
+				sort(i, hi);
+				hi = j;
+			}
+		}
+		for (int i = lo + 1; i <= hi; i++) {
+			int v = order[i];
+			int j = i - 1;
+			while (j >= lo && lefts[order[j]] > lefts[v]) {
+				order[j+1] = order[j];
+				j--;
+			}
+			order[j+1] = v;
+		}
+	}
+}
@@ -2,11 +2,8 @@ import java.awt.*;
 
 import javax.swing.*;
 
-import java.util.List;
-import java.util.ArrayList;
-
 /**
- * Using a quadtree for collision detection
+ * Viewer for a collision simulation: shows the blobs, highlighting the colliders, and lets you add blobs and change settings
  * 
  * @author Chris Bailey-Kellogg, Dartmouth CS 10, Spring 2015
  * @author CBK, Spring 2016, updated for blobs
@@ -15,30 +12,27 @@ import java.util.ArrayList;
 public class CollisionGUI extends DrawingGUI {
 	private static final int width=400, height=400;		// size of the universe
 
-	private ArrayList<Blob> blobs = new ArrayList<Blob>();						// all the blobs
-	private ArrayList<Blob> colliders;					// the blobs who collided at this step
+	private SimulationWorker worker;					// runs the simulation in the background; the blobs are drawn from its frames
 	private char blobType = 'b';						// what type of blob to create
-	private char collisionHandler = 'c';				// when there's a collision, 'c'olor them, or 'd'estroy them
-	private int delay = 100;							// timer control
+	private int delay = 100;							// milliseconds per tick
 
 	public CollisionGUI() {
 		super("super-collider", width, height);
 
-	ArrayList<Blob>	blobs = new ArrayList<Blob>();
-
-		// Timer drives the animation.
-		startTimer();
+		// The worker drives the animation, asking for a repaint after each tick.
+		worker = new SimulationWorker(new CollisionSimulation(width, height), delay * 1000000L, this::repaint);
+		worker.start();
 	}
 
 	/**
-	 * Adds an blob of the current blobType at the location
+	 * Adds an blob of the current blobType at the location (once the worker gets to it)
 	 */
 	private void add(int x, int y) {
 		if (blobType=='b') {
-			blobs.add(new Bouncer(x,y,width,height));
+			worker.submit(sim -> sim.addBouncer(x, y));
 		}
 		else if (blobType=='w') {
-			blobs.add(new Wanderer(x,y));
+			worker.submit(sim -> sim.addWanderer(x, y));
 		}
 		else {
 			System.err.println("Unknown blob type "+blobType);
@@ -60,12 +54,12 @@ public class CollisionGUI extends DrawingGUI {
 	public void handleKeyPress(char k)  {
 		if (k == 'f') { // faster
 			if (delay>1) delay /= 2;
-			setTimerDelay(delay);
+			worker.setStepNanos(delay * 1000000L);
 			System.out.println("delay:"+delay);
 		}
 		else if (k == 's') { // slower
 			delay *= 2;
-			setTimerDelay(delay);
+			worker.setStepNanos(delay * 1000000L);
 			System.out.println("delay:"+delay);
 		}
 		else if (k == 'r') { // add some new blobs at random positions
@@ -74,10 +68,24 @@ public class CollisionGUI extends DrawingGUI {
 				repaint();
 			}			
 		}
-		else if (k == 'c' || k == 'd') { // control how collisions are handled
-			collisionHandler = k;
+		else if (k == 'c') { // color collisions
+			worker.submit(sim -> sim.setCollisionHandler(CollisionSimulation.COLOR));
+			System.out.println("collision:"+k);
+		}
+		else if (k == 'd') { // destroy colliders
+			worker.submit(sim -> sim.setCollisionHandler(CollisionSimulation.DESTROY));
 			System.out.println("collision:"+k);
 		}
+		else if (k == 'p' || k == 'g' || k == 'q' || k == 'v') { // control how collisions are found
+			worker.submit(sim -> sim.setBroadPhase(k));
+			System.out.println("broad phase:"+k);
+		}
+		else if (k == 'm') { // toggle multi-threaded queries
+			worker.submit(sim -> {
+				sim.setParallel(!sim.isParallel());
+				System.out.println("parallel:"+sim.isParallel());
+			});
+		}
 		else if (k == '0') { // run test case 0
 			test0();
 		}
@@ -90,101 +98,53 @@ public class CollisionGUI extends DrawingGUI {
 	}
 
 	/**
-	 * DrawingGUI method, here drawing all the blobs in green and then re-drawing the colliders in red
+	 * DrawingGUI method, here drawing the latest frame: the blobs in green, except the colliders (as of that step) in red,
+	 * and what stopped the simulation, if anything did
+	 * (just copying from the frame, however many blobs there are and however long the worker takes to find the colliders)
 	 */
 	public void draw(Graphics g) {
-		// TODO: YOUR CODE HERE
-		// Ask all the blobs to draw themselves.
-		// Ask just the colliders to draw themselves in red.
-		findColliders();
-				
-		g.setColor(Color.GREEN);
-		for (Blob blob : blobs) {
-			blob.draw(g);
+		if (worker == null) return;		// not started yet
+		SimulationWorker.Frame frame = worker.getFrame();
+		for (int i = 0; i < frame.size(); i++) {
+			g.setColor(frame.isCollider(i) ? Color.RED : Color.GREEN);
+			double x = frame.getX(i), y = frame.getY(i), r = frame.getR(i);
+			g.fillOval((int)(x-r), (int)(y-r), (int)(2*r), (int)(2*r));
 		}
-		
-		g.setColor(Color.RED);
-		for (Blob blob : colliders) {
-			blob.draw(g);
+		if (worker.getError() != null) {
+			g.setColor(Color.BLACK);
+			g.drawString("simulation stopped: "+worker.getError(), 5, 15);
+			g.drawString("(add a blob or change a setting to start it again)", 5, 30);
 		}
 	}
-
-	/**
-	 * Sets colliders to include all blobs in contact with another blob
-	 */
-	private void findColliders() {
-		// TODO: YOUR CODE HERE
-		// Create the tree
-		// For each blob, see if anybody else collided with it
-		colliders = new ArrayList<Blob>();
-		if (blobs.size() > 0) {
-			PointQuadtree tree = new PointQuadtree(blobs.get(0), 0, 0, width, height);
-			
-			// Add each blob to the tree
-			for (int i = 1; i < blobs.size(); i++) {
-				tree.insert(blobs.get(i));
-			}
-						
-			// Add each colliding blob to the list of colliders
-			for (Blob blob : blobs) {
-				ArrayList<Blob> found = (ArrayList<Blob>)tree.findInCircle(blob.getX(), blob.getY(), 2 * blob.r);
-				if (found.size() > 1) {
-					colliders.addAll(found);
-				}
-			}
-		}
-	}
-
-	/**
-	 * DrawingGUI method, here moving all the blobs and checking for collisions
-	 */
-	public void handleTimer() {
-		// Ask all the blobs to move themselves.
-		for (Blob blob : blobs) {
-			blob.step();
-		}
-		// Check for collisions
-		if (blobs.size() > 0) {
-			findColliders();
-			if (collisionHandler=='d') {
-				blobs.removeAll(colliders);
-				colliders = null;
-			}
-		}
-		// Now update the drawing
-		repaint();
-	}
 	
 	/**
 	 * Test method. Create two blobs, set them to go fwds or bwds into each other.
 	 */
 	public void test0() {
-		blobs = new ArrayList<Blob>();
 		blobType = 'b';
-		add(101, 101);
-		add(100, 199);
-		add(201, 100);
-		add(200, 201);
-		blobs.get(0).setVelocity(1, 0);
-		blobs.get(1).setVelocity(1, 0);
-		blobs.get(2).setVelocity(-1, 0);
-		blobs.get(3).setVelocity(-1, 0);
+		// Replace the simulation's blobs with these in one command, so no tick sees them half set up
+		worker.submit(sim -> {
+			sim.clear();
+			sim.addBouncer(101,101).setVelocity(1, 0);
+			sim.addBouncer(100,199).setVelocity(1, 0);
+			sim.addBouncer(201,100).setVelocity(-1, 0);
+			sim.addBouncer(200,201).setVelocity(-1, 0);
+		});
 	}
 	
 	/**
 	 * Test method. Create two blobs, set them to miss each other.
 	 */
 	public void test1() {
-		blobs = new ArrayList<Blob>();
 		blobType = 'b';
-		add(101, 101);
-		add(100, 199);
-		add(201, 100);
-		add(200, 201);
-		blobs.get(0).setVelocity(1, 0);
-		blobs.get(1).setVelocity(-1, 0);
-		blobs.get(2).setVelocity(1, 0);
-		blobs.get(3).setVelocity(0, -1);
+		// Replace the simulation's blobs with these in one command, so no tick sees them half set up
+		worker.submit(sim -> {
+			sim.clear();
+			sim.addBouncer(101,101).setVelocity(1, 0);
+			sim.addBouncer(100,199).setVelocity(-1, 0);
+			sim.addBouncer(201,100).setVelocity(1, 0);
+			sim.addBouncer(200,201).setVelocity(0, -1);
+		});
 	}
 
 	public static void main(String[] args) {
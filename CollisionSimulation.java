@@ -0,0 +1,453 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The blob collision simulation, without any display: each tick moves every blob, finds the blobs in contact
+ * with another, and hands them to a collision handler.
+ * CollisionGUI is just a viewer of one of these; it can equally be run headless (see main), e.g., on a server
+ * or to measure how many blob-steps per second it manages.
+ * Bouncers and wanderers added with addBouncer and addWanderer (rather than as objects with add) keep their state
+ * in a BlobArray, which moves them all in one batch each tick; their Blob objects just show where they are.
+ * Each tick's timings are recorded in QuadtreeMetrics, while it's enabled.
+ * Not thread-safe: tick it and look at it from one thread (e.g., the Swing event thread).
+ */
+public class CollisionSimulation {
+	/**
+	 * What to do about the blobs that collided on a tick
+	 */
+	public interface CollisionHandler {
+		/**
+		 * @param sim			the simulation, to change as needed (e.g., removing blobs)
+		 * @param colliders		the blobs in contact with another blob, in the order they're in the simulation
+		 */
+		public void handle(CollisionSimulation sim, List<Blob> colliders);
+	}
+
+	/**
+	 * Leaves the colliders alone (a viewer can still show them, e.g., in a different color)
+	 */
+	public static final CollisionHandler COLOR = (sim, colliders) -> { };
+
+	/**
+	 * Removes the colliders from the simulation
+	 */
+	public static final CollisionHandler DESTROY = (sim, colliders) -> sim.removeAll(colliders);
+
+	/**
+	 * A blob whose state lives in the simulation's BlobArray: the array moves it, and the simulation copies its
+	 * position and size out to here after each tick, for the broad phases and viewers. Setters write through.
+	 */
+	private class ArrayBlob extends Blob {
+		private int index;			// which blob it is in the array
+
+		ArrayBlob(int index) {
+			super(array.getX(index), array.getY(index), array.getR(index));
+			this.index = index;
+		}
+
+		@Override
+		public void setX(double x) {
+			super.setX(x);
+			array.setX(index, x);
+		}
+
+		@Override
+		public void setY(double y) {
+			super.setY(y);
+			array.setY(index, y);
+		}
+
+		@Override
+		public void setR(double r) {
+			super.setR(r);
+			array.setR(index, r);
+		}
+
+		@Override
+		public void setVelocity(double dx, double dy) {
+			super.setVelocity(dx, dy);
+			array.setVelocity(index, dx, dy);
+		}
+
+		@Override
+		public void setGrowth(double dr) {
+			super.setGrowth(dr);
+			array.setGrowth(index, dr);
+		}
+
+		/**
+		 * Does nothing: the array has already moved it (see tick)
+		 */
+		@Override
+		public void step() {
+		}
+	}
+
+	private static final double REBUILD_FRACTION = 1.0 / 16;	// in 'q' mode, rebuild the tree once more than this fraction of the blobs moved
+
+	private final double width, height;					// size of the universe
+	private ArrayList<Blob> blobs = new ArrayList<Blob>();	// all the blobs
+	private BlobArray array = new BlobArray();			// the state of the blobs added by addBouncer and addWanderer
+	private ArrayList<ArrayBlob> arrayed = new ArrayList<ArrayBlob>();	// arrayed.get(i) shows the array's blob i
+	private List<Blob> colliders = new ArrayList<Blob>();	// the blobs who collided at the last tick (and are still here)
+	private char broadPhase = 'q';						// how to find collisions: per-blob 'q'uadtree queries, sweep-and-'p'rune, hash 'g'rid, or swept 'v'olumes
+	private PointQuadtree<Blob> tree;					// in 'q' mode, all the blobs, rebuilt or updated as they move (null if none)
+	private CollisionDetector detector = new CollisionDetector();	// in 'p' mode, finds the colliding pairs; in 'q' mode, runs parallel queries
+	private boolean parallel = false;					// in 'q' mode, whether to run the per-blob queries across all cores
+	private SpatialHashGrid<Blob> grid;					// in 'g' mode, refilled each tick
+	private double[] oldXs = new double[0], oldYs = new double[0];	// where each blob was at the start of the tick
+	private List<CollisionDetector.Pair> collisions = new ArrayList<CollisionDetector.Pair>();	// in 'v' mode, the last tick's colliding pairs
+	private CollisionHandler handler = COLOR;			// what to do about collisions
+	private int lastMoved;								// how many blobs moved at the last tick
+	private long ticks, blobSteps;						// how many ticks have run, and how many blob moves in total
+
+	/**
+	 * Initializes an empty simulation over a width x height universe
+	 */
+	public CollisionSimulation(double width, double height) {
+		this.width = width;
+		this.height = height;
+		grid = new SpatialHashGrid<Blob>(0, 0, width, height, 10);	// cells the size of a default blob's diameter
+	}
+
+	// Getters and setters
+
+	public double getWidth() {
+		return width;
+	}
+
+	public double getHeight() {
+		return height;
+	}
+
+	/**
+	 * The blobs, in the order they were added; don't change the list directly (use add and removeAll)
+	 */
+	public List<Blob> getBlobs() {
+		return Collections.unmodifiableList(blobs);
+	}
+
+	/**
+	 * The blobs that collided at the last tick, minus any since removed
+	 */
+	public List<Blob> getColliders() {
+		return Collections.unmodifiableList(colliders);
+	}
+
+	/**
+	 * In 'q' mode, the tree holding all the blobs at their current positions, which the queries run against
+	 * (null in the other modes, or with no blobs); don't change it
+	 */
+	public PointIndex<Blob> getIndex() {
+		return tree;
+	}
+
+	public char getBroadPhase() {
+		return broadPhase;
+	}
+
+	/**
+	 * In 'v' mode, the pairs that collided at the last tick, each with the fraction of the tick at which they first touched
+	 */
+	public List<CollisionDetector.Pair> getCollisions() {
+		return Collections.unmodifiableList(collisions);
+	}
+
+	/**
+	 * Sets how to find collisions
+	 * @param broadPhase	'p' for sweep-and-prune, 'g' for a spatial hash grid, 'q' for per-blob quadtree queries,
+	 * 						'v' for sweep-and-prune over each blob's motion during the tick (so fast blobs can't pass through each other)
+	 */
+	public void setBroadPhase(char broadPhase) {
+		if (broadPhase != 'p' && broadPhase != 'g' && broadPhase != 'q' && broadPhase != 'v') {
+			throw new IllegalArgumentException("unknown broad phase "+broadPhase);
+		}
+		this.broadPhase = broadPhase;
+		collisions = new ArrayList<CollisionDetector.Pair>();
+		tree = broadPhase == 'q' ? PointQuadtree.build(blobs, 0, 0, width, height) : null;
+	}
+
+	public boolean isParallel() {
+		return parallel;
+	}
+
+	/**
+	 * Sets whether, in 'q' mode, to run the per-blob queries across all cores
+	 */
+	public void setParallel(boolean parallel) {
+		this.parallel = parallel;
+	}
+
+	public CollisionHandler getCollisionHandler() {
+		return handler;
+	}
+
+	public void setCollisionHandler(CollisionHandler handler) {
+		this.handler = handler;
+	}
+
+	/**
+	 * How many ticks have run
+	 */
+	public long getTicks() {
+		return ticks;
+	}
+
+	/**
+	 * How many blob moves there have been over all the ticks
+	 */
+	public long getBlobSteps() {
+		return blobSteps;
+	}
+
+	/**
+	 * Adds the blob
+	 */
+	public void add(Blob blob) {
+		blobs.add(blob);
+		if (broadPhase == 'q') {
+			if (tree == null) tree = new PointQuadtree<Blob>(blob, 0, 0, width, height);
+			else tree.insert(blob);
+		}
+	}
+
+	/**
+	 * Adds a bouncer (radius 5, with a random velocity) that bounces around the whole universe, moved along with
+	 * the others added this way in one batch each tick
+	 * @return	the blob, whose setters can still adjust it
+	 */
+	public Blob addBouncer(double x, double y) {
+		return addArrayed(array.addBouncer(x, y, width, height));
+	}
+
+	/**
+	 * Adds a wanderer (radius 5), moved along with the others added this way in one batch each tick
+	 * @return	the blob, whose setters can still adjust it
+	 */
+	public Blob addWanderer(double x, double y) {
+		return addArrayed(array.addWanderer(x, y));
+	}
+
+	/**
+	 * Removes the blobs (any not in the simulation are ignored)
+	 */
+	public void removeAll(Collection<? extends Blob> gone) {
+		if (gone.isEmpty()) return;
+		Set<Blob> removed = new HashSet<Blob>(gone);
+		if (tree != null) {
+			for (Blob blob : removed) tree = tree.remove(blob);
+		}
+		blobs.removeAll(removed);
+		colliders.removeAll(removed);
+		// Take any arrayed ones out of the array too, and renumber the rest
+		boolean[] flags = new boolean[array.size()];
+		boolean any = false;
+		for (Blob blob : removed) {
+			if (blob instanceof ArrayBlob && arrayed.get(((ArrayBlob)blob).index) == blob) {
+				flags[((ArrayBlob)blob).index] = true;
+				any = true;
+			}
+		}
+		if (any) {
+			array.removeAll(flags);
+			arrayed.removeAll(removed);
+			for (int i = 0; i < arrayed.size(); i++) arrayed.get(i).index = i;
+		}
+	}
+
+	/**
+	 * Removes all the blobs
+	 */
+	public void clear() {
+		blobs = new ArrayList<Blob>();
+		array = new BlobArray();
+		arrayed = new ArrayList<ArrayBlob>();
+		colliders = new ArrayList<Blob>();
+		collisions = new ArrayList<CollisionDetector.Pair>();
+		tree = null;
+	}
+
+	/**
+	 * Moves all the blobs one step, then finds the colliders and handles them
+	 */
+	public void tick() {
+		long start = System.nanoTime();
+		// Relocate the blobs in the tree as they move: a balanced build costs about as much as updating a tenth of
+		// the blobs (each one that has left its leaf's region costs a remove and an insert), so if more than a few
+		// moved last tick (and so likely will again), just rebuild after they've all moved.
+		// Otherwise update each blob right after its own step: finding its old place in the tree follows the other
+		// anchors' positions, so they all have to still be where the tree has them.
+		int n = blobs.size(), moved = 0;
+		boolean rebuild = tree != null && lastMoved > REBUILD_FRACTION * n, update = tree != null && !rebuild;
+		if (oldXs.length < n) {
+			oldXs = new double[2 * n];
+			oldYs = new double[2 * n];
+		}
+		// Ask all the blob objects to move themselves (the arrayed ones leave it to the array)
+		for (int i = 0; i < n; i++) {
+			Blob blob = blobs.get(i);
+			double oldX = blob.getX(), oldY = blob.getY();
+			oldXs[i] = oldX; oldYs[i] = oldY;
+			blob.step();
+			if (blob.getX() != oldX || blob.getY() != oldY) {
+				moved++;
+				if (update) tree = tree.update(blob, oldX, oldY);
+			}
+		}
+		// Move the arrayed ones all at once, then copy out where they went, one at a time as above
+		if (!arrayed.isEmpty()) {
+			array.stepAll();
+			for (int i = 0; i < arrayed.size(); i++) {
+				ArrayBlob blob = arrayed.get(i);
+				double oldX = blob.x, oldY = blob.y;
+				blob.x = array.getX(i); blob.y = array.getY(i); blob.r = array.getR(i);
+				if (blob.x != oldX || blob.y != oldY) {
+					moved++;
+					if (update) tree = tree.update(blob, oldX, oldY);
+				}
+			}
+		}
+		if (rebuild && moved > 0) tree = PointQuadtree.build(blobs, 0, 0, width, height);
+		lastMoved = moved;
+		blobSteps += blobs.size();
+		ticks++;
+		// Check for collisions
+		long stepped = System.nanoTime();
+		findColliders();
+		QuadtreeMetrics.get().recordTick(stepped - start, System.nanoTime() - stepped);
+		if (!colliders.isEmpty()) handler.handle(this, colliders);
+	}
+
+	/**
+	 * Runs the given number of ticks, as fast as possible
+	 */
+	public void run(long n) {
+		for (long i = 0; i < n; i++) tick();
+	}
+
+	/**
+	 * Runs the given number of ticks at a fixed rate, one every stepNanos on average:
+	 * if a tick runs long, the following ones run back to back until caught up, so the simulation keeps time
+	 * @param afterTick		called after each tick (e.g., to ask a viewer to repaint); may be null
+	 */
+	public void run(long n, long stepNanos, Runnable afterTick) throws InterruptedException {
+		long next = System.nanoTime();
+		for (long i = 0; i < n; i++) {
+			long wait = next - System.nanoTime();
+			if (wait > 0) Thread.sleep(wait / 1000000, (int)(wait % 1000000));
+			tick();
+			if (afterTick != null) afterTick.run();
+			next += stepNanos;
+		}
+	}
+
+	// Add the array's blob i, by way of an object showing it
+	private Blob addArrayed(int i) {
+		ArrayBlob blob = new ArrayBlob(i);
+		arrayed.add(blob);
+		add(blob);
+		return blob;
+	}
+
+	/**
+	 * Sets colliders to include all blobs in contact with another blob
+	 */
+	private void findColliders() {
+		if (blobs.isEmpty()) {
+			colliders = new ArrayList<Blob>();
+		}
+		else if (broadPhase == 'p') {
+			// One sweep over all the blobs finds each colliding pair once, respecting both radii
+			colliders = detector.findColliders(blobs);
+		}
+		else if (broadPhase == 'v') {
+			// Sweep over where the blobs went during the tick, not just where they ended up
+			// (a blob that bounced off a wall is taken to have moved straight to where it ended up)
+			collisions = detector.findSweptCollisions(blobs, oldXs, oldYs);
+			Set<Blob> collided = new HashSet<Blob>();
+			for (CollisionDetector.Pair pair : collisions) {
+				collided.add(pair.getA());
+				collided.add(pair.getB());
+			}
+			colliders = new ArrayList<Blob>();
+			for (Blob blob : blobs) {
+				if (collided.contains(blob)) colliders.add(blob);
+			}
+		}
+		else if (broadPhase == 'g') {
+			// Refill the grid, then check the pairs close enough that they might be touching
+			grid.clear();
+			double maxR = 0;
+			for (Blob blob : blobs) {
+				grid.insert(blob);
+				maxR = Math.max(maxR, blob.getR());
+			}
+			boolean[] collided = new boolean[blobs.size()];
+			grid.forEachNeighborPair(2 * maxR, (i, j) -> {
+				Blob a = blobs.get(i), b = blobs.get(j);
+				if (Geometry.pointInCircle(a.getX(), a.getY(), b.getX(), b.getY(), a.getR() + b.getR())) {
+					collided[i] = collided[j] = true;
+				}
+			});
+			colliders = new ArrayList<Blob>();
+			for (int i = 0; i < collided.length; i++) {
+				if (collided[i]) colliders.add(blobs.get(i));
+			}
+		}
+		else if (parallel) {
+			// The tree already holds every blob at its current position (see add and tick)
+			colliders = detector.findColliders(tree, blobs);
+		}
+		else {
+			// Ask about all the blobs in one batch, each reaching out to its radius plus the largest; a blob collides
+			// if anything besides itself it finds is within their two radii (as in the other modes)
+			int n = blobs.size();
+			double maxR = 0;
+			for (Blob blob : blobs) maxR = Math.max(maxR, blob.getR());
+			double[] xs = new double[n], ys = new double[n], rs = new double[n];
+			for (int i = 0; i < n; i++) {
+				Blob blob = blobs.get(i);
+				xs[i] = blob.getX(); ys[i] = blob.getY(); rs[i] = blob.getR() + maxR;
+			}
+			// (any PointIndex answers these; only keeping it up to date as the blobs move needs the PointQuadtree)
+			PointIndex<Blob> index = tree;
+			boolean[] collided = new boolean[n];
+			index.findInCircles(xs, ys, rs, (i, other) -> {
+				Blob blob = blobs.get(i);
+				if (other != blob && Geometry.pointInCircle(other.getX(), other.getY(), xs[i], ys[i], blob.getR() + other.getR())) {
+					collided[i] = true;
+				}
+			});
+			colliders = new ArrayList<Blob>();
+			for (int i = 0; i < n; i++) {
+				if (collided[i]) colliders.add(blobs.get(i));
+			}
+		}
+	}
+
+	/**
+	 * Runs a simulation of bouncers headless, as fast as it can, and reports the rate (and the metrics, turned on for it)
+	 * Usage: java CollisionSimulation [blobs [ticks [broad phase p/g/q/v]]]
+	 */
+	public static void main(String[] args) {
+		int n = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+		long ticks = args.length > 1 ? Long.parseLong(args[1]) : 1000;
+		int size = (int)Math.sqrt(n * 400.0);		// a blob per 20x20 area
+		CollisionSimulation sim = new CollisionSimulation(size, size);
+		if (args.length > 2) sim.setBroadPhase(args[2].charAt(0));
+		QuadtreeMetrics.get().setEnabled(true);
+		for (int i = 0; i < n; i++) {
+			sim.addBouncer(size * Math.random(), size * Math.random());
+		}
+		long start = System.nanoTime();
+		sim.run(ticks);
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.println(QuadtreeMetrics.get().snapshot());
+		System.out.printf("%d ticks of %d blobs in %.2f s: %.0f ticks/sec, %.0f blob-steps/sec, %d colliders at the end%n",
+				ticks, n, seconds, ticks / seconds, sim.getBlobSteps() / seconds, sim.getColliders().size());
+	}
+}
@@ -0,0 +1,96 @@
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * A point quadtree that any number of threads can update and query at the same time.
+ * It holds a PersistentPointQuadtree: an update builds the new version (copying just the changed path,
+ * sharing every other subtree), then atomically swaps it in, retrying if another update got there first.
+ * So updates are linearizable (each takes effect at its successful swap), and each query runs entirely against
+ * the one version that was current when it started, never seeing a half-finished update; reads take no locks at all.
+ * Routing and quadrant numbering match PointQuadtree. The points mustn't be moved while they're in the tree.
+ */
+public class ConcurrentPointQuadtree<E extends Point2D> implements PointIndex<E> {
+	private final AtomicReference<PersistentPointQuadtree<E>> current;	// the latest version
+
+	/**
+	 * Initializes an empty quadtree over the rectangle
+	 */
+	public ConcurrentPointQuadtree(double x1, double y1, double x2, double y2) {
+		current = new AtomicReference<PersistentPointQuadtree<E>>(new PersistentPointQuadtree<E>(x1, y1, x2, y2));
+	}
+
+	/**
+	 * Inserts the point into the tree; safe to call from any thread
+	 */
+	public void insert(E p) {
+		while (true) {
+			PersistentPointQuadtree<E> old = current.get();
+			if (current.compareAndSet(old, old.insert(p))) return;
+		}
+	}
+
+	/**
+	 * Removes the point from the tree (no effect if it isn't there); safe to call from any thread
+	 */
+	public void remove(E p) {
+		while (true) {
+			PersistentPointQuadtree<E> old = current.get();
+			if (current.compareAndSet(old, old.remove(p))) return;
+		}
+	}
+
+	/**
+	 * Returns the tree as of now, which later updates won't change
+	 */
+	public PersistentPointQuadtree<E> snapshot() {
+		return current.get();
+	}
+
+	// Queries, each against the version current at the start of the call
+
+	public int size() {
+		return current.get().size();
+	}
+
+	public List<E> allPoints() {
+		return current.get().allPoints();
+	}
+
+	public List<E> findInCircle(double cx, double cy, double cr) {
+		return current.get().findInCircle(cx, cy, cr);
+	}
+
+	public void findInCircle(double cx, double cy, double cr, Collection<? super E> out) {
+		current.get().findInCircle(cx, cy, cr, out);
+	}
+
+	public void findInCircle(double cx, double cy, double cr, Consumer<? super E> visitor) {
+		current.get().findInCircle(cx, cy, cr, visitor);
+	}
+
+	public int countInCircle(double cx, double cy, double cr) {
+		return current.get().countInCircle(cx, cy, cr);
+	}
+
+	public int countInCircle(double cx, double cy, double cr, int limit) {
+		return current.get().countInCircle(cx, cy, cr, limit);
+	}
+
+	public void findInCircles(double[] cx, double[] cy, double[] cr, ResultSink<? super E> sink) {
+		current.get().findInCircles(cx, cy, cr, sink);
+	}
+
+	public List<E> findIn(Geometry.Region region) {
+		return current.get().findIn(region);
+	}
+
+	public void findIn(Geometry.Region region, Collection<? super E> out) {
+		current.get().findIn(region, out);
+	}
+
+	public List<E> kNearest(double x, double y, int k) {
+		return current.get().kNearest(x, y, k);
+	}
+}
@@ -4,27 +4,9 @@
  * @author Chris Bailey-Kellogg, Dartmouth CS 10, Spring 2015
  * @author CBK, Fall 2016, separated from quadtree, instrumented to count calls
  * 
+ * The tests themselves aren't counted; PointQuadtree counts its queries' tests in their QuadtreeMetrics probes.
  */
 public class Geometry {
-	private static int numInCircleTests = 0;			// keeps track of how many times pointInCircle has been called
-	private static int numCircleRectangleTests = 0;		// keeps track of how many times circleIntersectsRectangle has been called
-		
-	public static int getNumInCircleTests() {
-		return numInCircleTests;
-	}
-
-	public static void resetNumInCircleTests() {
-		numInCircleTests = 0;
-	}
-
-	public static int getNumCircleRectangleTests() {
-		return numCircleRectangleTests;
-	}
-
-	public static void resetNumCircleRectangleTests() {
-		numCircleRectangleTests = 0;
-	}
-
 	/**
 	 * Returns whether or not the point is within the circle
 	 * @param px		point x coord
@@ -34,7 +16,6 @@ public class Geometry {
 	 * @param cr		circle radius
 	 */
 	public static boolean pointInCircle(double px, double py, double cx, double cy, double cr) {
-		numInCircleTests++;
 		return (px-cx)*(px-cx) + (py-cy)*(py-cy) <= cr*cr;
 	}
 
@@ -50,9 +31,156 @@ public class Geometry {
 	 * @param y2  	rectangle max y
 	 */
 	public static boolean circleIntersectsRectangle(double cx, double cy, double cr, double x1, double y1, double x2, double y2) {
-		numCircleRectangleTests++;
-		double closestX = Math.min(Math.max(cx, x1), x2);
-		double closestY = Math.min(Math.max(cy, y1), y2);
-		return (cx-closestX)*(cx-closestX) + (cy-closestY)*(cy-closestY) <= cr*cr;
+		return pointRectangleDistanceSquared(cx, cy, x1, y1, x2, y2) <= cr*cr;
+	}
+
+	/**
+	 * Returns whether or not the rectangle lies entirely inside the circle
+	 * @param x1 	rectangle min x
+	 * @param y1  	rectangle min y
+	 * @param x2  	rectangle max x
+	 * @param y2  	rectangle max y
+	 * @param cx	circle center x
+	 * @param cy	circle center y
+	 * @param cr	circle radius
+	 */
+	public static boolean rectangleInsideCircle(double x1, double y1, double x2, double y2, double cx, double cy, double cr) {
+		// The corner farthest from the center must be inside
+		double fx = Math.max(cx - x1, x2 - cx), fy = Math.max(cy - y1, y2 - cy);
+		return fx*fx + fy*fy <= cr*cr;
+	}
+
+	/**
+	 * Returns the squared distance from the point to the closest point of the rectangle (0 if it's inside)
+	 * @param px	point x coord
+	 * @param py	point y coord
+	 * @param x1 	rectangle min x
+	 * @param y1  	rectangle min y
+	 * @param x2  	rectangle max x
+	 * @param y2  	rectangle max y
+	 */
+	public static double pointRectangleDistanceSquared(double px, double py, double x1, double y1, double x2, double y2) {
+		double closestX = Math.min(Math.max(px, x1), x2);
+		double closestY = Math.min(Math.max(py, y1), y2);
+		return (px-closestX)*(px-closestX) + (py-closestY)*(py-closestY);
+	}
+
+	/**
+	 * A shape that spatial indexes can search within: it has to be able to say whether it holds a point,
+	 * and whether it overlaps or completely covers an axis-aligned rectangle (so whole subtrees can be skipped or taken)
+	 */
+	public interface Region {
+		public boolean containsPoint(double px, double py);
+		public boolean intersectsRect(double x1, double y1, double x2, double y2);
+		public boolean containsRect(double x1, double y1, double x2, double y2);
+	}
+
+	/**
+	 * Returns the circle as a Region
+	 * @param cx	circle center x
+	 * @param cy	circle center y
+	 * @param cr	circle radius
+	 */
+	public static Region circle(final double cx, final double cy, final double cr) {
+		return new Region() {
+			public boolean containsPoint(double px, double py) {
+				return pointInCircle(px, py, cx, cy, cr);
+			}
+
+			public boolean intersectsRect(double x1, double y1, double x2, double y2) {
+				return circleIntersectsRectangle(cx, cy, cr, x1, y1, x2, y2);
+			}
+
+			public boolean containsRect(double x1, double y1, double x2, double y2) {
+				return rectangleInsideCircle(x1, y1, x2, y2, cx, cy, cr);
+			}
+		};
+	}
+
+	/**
+	 * Returns the axis-aligned rectangle as a Region (e.g., a viewport)
+	 * @param rx1 	rectangle min x
+	 * @param ry1  	rectangle min y
+	 * @param rx2  	rectangle max x
+	 * @param ry2  	rectangle max y
+	 */
+	public static Region rectangle(final double rx1, final double ry1, final double rx2, final double ry2) {
+		return new Region() {
+			public boolean containsPoint(double px, double py) {
+				return px >= rx1 && px <= rx2 && py >= ry1 && py <= ry2;
+			}
+
+			public boolean intersectsRect(double x1, double y1, double x2, double y2) {
+				return x1 <= rx2 && x2 >= rx1 && y1 <= ry2 && y2 >= ry1;
+			}
+
+			public boolean containsRect(double x1, double y1, double x2, double y2) {
+				return x1 >= rx1 && x2 <= rx2 && y1 >= ry1 && y2 <= ry2;
+			}
+		};
+	}
+
+	/**
+	 * Returns the convex polygon as a Region
+	 * @param xs	x coordinates of the vertices, in order around the polygon (either direction)
+	 * @param ys	corresponding y coordinates
+	 */
+	public static Region convexPolygon(double[] xs, double[] ys) {
+		if (xs.length != ys.length || xs.length < 3) {
+			throw new IllegalArgumentException("a polygon needs at least 3 vertices, each with an x and a y");
+		}
+		return new ConvexPolygon(xs.clone(), ys.clone());
+	}
+
+	/**
+	 * A convex polygon, tested against rectangles with the separating axis theorem
+	 */
+	private static class ConvexPolygon implements Region {
+		private final double[] xs, ys;					// vertices
+		private final double sign;						// +1 if the vertices go clockwise on screen (y down), -1 if counter
+		private final double minX, minY, maxX, maxY;	// bounding box
+
+		ConvexPolygon(double[] xs, double[] ys) {
+			this.xs = xs; this.ys = ys;
+			double area2 = 0;
+			double minX = xs[0], minY = ys[0], maxX = xs[0], maxY = ys[0];
+			for (int i = 0; i < xs.length; i++) {
+				int j = (i + 1) % xs.length;
+				area2 += xs[i] * ys[j] - xs[j] * ys[i];
+				minX = Math.min(minX, xs[i]); maxX = Math.max(maxX, xs[i]);
+				minY = Math.min(minY, ys[i]); maxY = Math.max(maxY, ys[i]);
+			}
+			this.sign = area2 >= 0 ? 1 : -1;
+			this.minX = minX; this.minY = minY; this.maxX = maxX; this.maxY = maxY;
+		}
+
+		public boolean containsPoint(double px, double py) {
+			// Inside (or on) every edge
+			for (int i = 0; i < xs.length; i++) {
+				int j = (i + 1) % xs.length;
+				double cross = (xs[j] - xs[i]) * (py - ys[i]) - (ys[j] - ys[i]) * (px - xs[i]);
+				if (sign * cross < 0) return false;
+			}
+			return true;
+		}
+
+		public boolean containsRect(double x1, double y1, double x2, double y2) {
+			// Convex, so holding all four corners means holding the whole rectangle
+			return containsPoint(x1, y1) && containsPoint(x2, y1) && containsPoint(x1, y2) && containsPoint(x2, y2);
+		}
+
+		public boolean intersectsRect(double x1, double y1, double x2, double y2) {
+			// The rectangle's axes: compare bounding boxes
+			if (x1 > maxX || x2 < minX || y1 > maxY || y2 < minY) return false;
+			// The polygon's edges: the rectangle mustn't lie entirely outside any of them
+			for (int i = 0; i < xs.length; i++) {
+				int j = (i + 1) % xs.length;
+				double ex = xs[j] - xs[i], ey = ys[j] - ys[i];
+				double c1 = ex * (y1 - ys[i]) - ey * (x1 - xs[i]), c2 = ex * (y1 - ys[i]) - ey * (x2 - xs[i]);
+				double c3 = ex * (y2 - ys[i]) - ey * (x1 - xs[i]), c4 = ex * (y2 - ys[i]) - ey * (x2 - xs[i]);
+				if (Math.max(Math.max(sign * c1, sign * c2), Math.max(sign * c3, sign * c4)) < 0) return false;
+			}
+			return true;
+		}
 	}
 }
@@ -0,0 +1,62 @@
+import java.util.Arrays;
+
+/**
+ * A growable list of primitive ints, for collecting indices without boxing them
+ */
+public class IntList {
+	private int[] values;		// elements in [0,size)
+	private int size;			// how many elements are in use
+
+	public IntList() {
+		this(16);
+	}
+
+	/**
+	 * @param capacity	initial room, before needing to grow
+	 */
+	public IntList(int capacity) {
+		values = new int[Math.max(capacity, 1)];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Returns the element at index i, 0 through size()-1
+	 */
+	public int get(int i) {
+		if (i < 0 || i >= size) throw new IndexOutOfBoundsException("index "+i+" in list of size "+size);
+		return values[i];
+	}
+
+	/**
+	 * Adds the value to the end of the list, growing if necessary
+	 */
+	public void add(int v) {
+		if (size == values.length) values = Arrays.copyOf(values, values.length * 2);
+		values[size++] = v;
+	}
+
+	/**
+	 * Empties the list, keeping its room for reuse
+	 */
+	public void clear() {
+		size = 0;
+	}
+
+	/**
+	 * Returns a copy of the elements, as an array of exactly size() ints
+	 */
+	public int[] toArray() {
+		return Arrays.copyOf(values, size);
+	}
+
+	public String toString() {
+		return Arrays.toString(toArray());
+	}
+}
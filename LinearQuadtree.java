@@ -0,0 +1,237 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * A linear quadtree: rather than linking nodes, it gives each point the Morton (Z-order) code of its position
+ * on a 2^15 x 2^15 grid over the rectangle, and keeps the points in arrays sorted by code.
+ * Every quadtree cell is then a contiguous run of the arrays, found by binary search, so a query walks
+ * the cells that overlap its region (splitting them like a region quadtree) and scans runs of memory
+ * rather than chasing pointers. Building is a radix sort on the codes, cheap enough to redo every frame.
+ * It is built once from a collection, then only queried. Points are assumed to lie within the rectangle
+ * (ones outside are treated as being on its nearest edge).
+ */
+public class LinearQuadtree<E extends Point2D> implements PointIndex<E> {
+	private static final int LEVELS = 15;		// bits of resolution per axis
+	private static final int SCAN = 16;			// cells with at most this many points are just scanned
+
+	private final double x1, y1, x2, y2;		// the whole tree's region
+	private final int[] codes;					// Morton codes, sorted ascending
+	private final double[] xs, ys;				// coordinates, in code order
+	private final Object[] items;				// the points, in code order
+
+	private LinearQuadtree(double x1, double y1, double x2, double y2, int[] codes, double[] xs, double[] ys, Object[] items) {
+		this.x1 = x1; this.y1 = y1; this.x2 = x2; this.y2 = y2;
+		this.codes = codes; this.xs = xs; this.ys = ys; this.items = items;
+	}
+
+	/**
+	 * Builds a linear quadtree holding all the points in the rectangle
+	 */
+	public static <E extends Point2D> LinearQuadtree<E> build(Collection<E> points, double x1, double y1, double x2, double y2) {
+		int n = points.size();
+		int[] codes = new int[n], order = new int[n];
+		Object[] unsorted = points.toArray();
+		for (int i = 0; i < n; i++) {
+			Point2D p = (Point2D)unsorted[i];
+			codes[i] = interleave(scale(p.getX(), x1, x2)) | (interleave(scale(p.getY(), y1, y2)) << 1);
+			order[i] = i;
+		}
+
+		// LSD radix sort of the codes (30 bits, 8 at a time), carrying the original indices along
+		int[] codesTmp = new int[n], orderTmp = new int[n];
+		for (int shift = 0; shift < 2 * LEVELS; shift += 8) {
+			int[] counts = new int[257];
+			for (int i = 0; i < n; i++) counts[((codes[i] >>> shift) & 0xFF) + 1]++;
+			for (int b = 0; b < 256; b++) counts[b+1] += counts[b];
+			for (int i = 0; i < n; i++) {
+				int dest = counts[(codes[i] >>> shift) & 0xFF]++;
+				codesTmp[dest] = codes[i];
+				orderTmp[dest] = order[i];
+			}
+			int[] t = codes; codes = codesTmp; codesTmp = t;
+			t = order; order = orderTmp; orderTmp = t;
+		}
+
+		double[] xs = new double[n], ys = new double[n];
+		Object[] items = new Object[n];
+		for (int i = 0; i < n; i++) {
+			Point2D p = (Point2D)unsorted[order[i]];
+			items[i] = p;
+			xs[i] = p.getX(); ys[i] = p.getY();
+		}
+		return new LinearQuadtree<E>(x1, y1, x2, y2, codes, xs, ys, items);
+	}
+
+	public int size() {
+		return items.length;
+	}
+
+	@SuppressWarnings("unchecked")
+	public List<E> allPoints() {
+		List<E> all = new ArrayList<E>(items.length);
+		for (Object p : items) all.add((E)p);
+		return all;
+	}
+
+	public List<E> findInCircle(double cx, double cy, double cr) {
+		List<E> hits = new ArrayList<E>();
+		findInCircle(cx, cy, cr, hits);
+		return hits;
+	}
+
+	public void findInCircle(double cx, double cy, double cr, Collection<? super E> out) {
+		findIn(Geometry.circle(cx, cy, cr), (Consumer<E>)out::add);
+	}
+
+	public void findInCircle(double cx, double cy, double cr, Consumer<? super E> visitor) {
+		findIn(Geometry.circle(cx, cy, cr), visitor);
+	}
+
+	public int countInCircle(double cx, double cy, double cr) {
+		return countIn(Geometry.circle(cx, cy, cr), Integer.MAX_VALUE);
+	}
+
+	public int countInCircle(double cx, double cy, double cr, int limit) {
+		return countIn(Geometry.circle(cx, cy, cr), limit);
+	}
+
+	/**
+	 * Finds all points within the region (e.g., a viewport rectangle)
+	 */
+	public List<E> findIn(Geometry.Region region) {
+		List<E> hits = new ArrayList<E>();
+		findIn(region, (Consumer<E>)hits::add);
+		return hits;
+	}
+
+	/**
+	 * Finds all points within the region, adding them to the caller's collection
+	 */
+	public void findIn(Geometry.Region region, Collection<? super E> out) {
+		findIn(region, (Consumer<E>)out::add);
+	}
+
+	/**
+	 * Finds all points within the region, handing each one to the visitor
+	 */
+	public void findIn(Geometry.Region region, Consumer<? super E> visitor) {
+		findIn(region, visitor, 0, 0, 0, items.length, x1, y1, x2, y2);
+	}
+
+	/**
+	 * Counts the points within the region, stopping early once the limit is reached
+	 */
+	public int countIn(Geometry.Region region, int limit) {
+		return countIn(region, limit, 0, 0, 0, items.length, x1, y1, x2, y2);
+	}
+
+	public void findInCircles(double[] cx, double[] cy, double[] cr, ResultSink<? super E> sink) {
+		int n = cx.length;
+		if (cy.length != n || cr.length != n) throw new IllegalArgumentException("need the same number of x's, y's, and r's");
+		for (int i = 0; i < n; i++) {
+			final int query = i;
+			findIn(Geometry.circle(cx[i], cy[i], cr[i]), (E p) -> sink.accept(query, p));
+		}
+	}
+
+	/**
+	 * Finds the k points closest to the location: counts the points in a circle around it, sized to hold about k
+	 * at the average density and doubled until it holds at least k (or covers the whole rectangle),
+	 * then sorts that circle's points by distance
+	 */
+	public List<E> kNearest(double x, double y, int k) {
+		List<E> result = new ArrayList<E>();
+		if (k <= 0 || items.length == 0) return result;
+		double fx = Math.max(x - x1, x2 - x), fy = Math.max(y - y1, y2 - y);
+		double farthest = Math.sqrt(fx*fx + fy*fy);		// the circle out to here holds everything
+		double r = Math.sqrt((x2 - x1) * (y2 - y1) * Math.min(k, items.length) / (Math.PI * items.length));
+		if (!(r > 0)) r = farthest;		// (a rectangle with no area)
+		while (r < farthest && countIn(Geometry.circle(x, y, r), k) < k) r *= 2;
+		List<PointQuadtree.Candidate<E>> near = new ArrayList<PointQuadtree.Candidate<E>>();
+		findIn(Geometry.circle(x, y, Math.min(r, farthest)), (E p) -> {
+			double dx = p.getX() - x, dy = p.getY() - y;
+			near.add(new PointQuadtree.Candidate<E>(p, dx*dx + dy*dy));
+		});
+		Collections.sort(near);
+		for (int i = 0; i < near.size() && i < k; i++) result.add(near.get(i).item);
+		return result;
+	}
+
+	// Visit the hits in the cell at the level whose codes start at prefix, and whose points are among [from,to)
+	@SuppressWarnings("unchecked")
+	private void findIn(Geometry.Region region, Consumer<? super E> visitor, int level, int prefix, int from, int to,
+			double cx1, double cy1, double cx2, double cy2) {
+		int span = 1 << (2 * (LEVELS - level));		// how many codes the cell covers
+		int lo = lowerBound(prefix, from, to), hi = lowerBound(prefix + span, lo, to);
+		if (lo == hi || !region.intersectsRect(cx1, cy1, cx2, cy2)) return;
+		if (region.containsRect(cx1, cy1, cx2, cy2)) {
+			for (int i = lo; i < hi; i++) visitor.accept((E)items[i]);
+		}
+		else if (hi - lo <= SCAN || level == LEVELS) {
+			for (int i = lo; i < hi; i++) {
+				if (region.containsPoint(xs[i], ys[i])) visitor.accept((E)items[i]);
+			}
+		}
+		else {
+			// Children in Z order: upper-left, upper-right, lower-left, lower-right
+			int quarter = span >> 2;
+			double mx = (cx1 + cx2) / 2, my = (cy1 + cy2) / 2;
+			findIn(region, visitor, level+1, prefix, lo, hi, cx1, cy1, mx, my);
+			findIn(region, visitor, level+1, prefix + quarter, lo, hi, mx, cy1, cx2, my);
+			findIn(region, visitor, level+1, prefix + 2*quarter, lo, hi, cx1, my, mx, cy2);
+			findIn(region, visitor, level+1, prefix + 3*quarter, lo, hi, mx, my, cx2, cy2);
+		}
+	}
+
+	private int countIn(Geometry.Region region, int limit, int level, int prefix, int from, int to,
+			double cx1, double cy1, double cx2, double cy2) {
+		int span = 1 << (2 * (LEVELS - level));
+		int lo = lowerBound(prefix, from, to), hi = lowerBound(prefix + span, lo, to);
+		if (limit <= 0 || lo == hi || !region.intersectsRect(cx1, cy1, cx2, cy2)) return 0;
+		if (region.containsRect(cx1, cy1, cx2, cy2)) return Math.min(hi - lo, limit);
+		int count = 0;
+		if (hi - lo <= SCAN || level == LEVELS) {
+			for (int i = lo; i < hi && count < limit; i++) {
+				if (region.containsPoint(xs[i], ys[i])) count++;
+			}
+			return count;
+		}
+		int quarter = span >> 2;
+		double mx = (cx1 + cx2) / 2, my = (cy1 + cy2) / 2;
+		count += countIn(region, limit - count, level+1, prefix, lo, hi, cx1, cy1, mx, my);
+		count += countIn(region, limit - count, level+1, prefix + quarter, lo, hi, mx, cy1, cx2, my);
+		count += countIn(region, limit - count, level+1, prefix + 2*quarter, lo, hi, cx1, my, mx, cy2);
+		count += countIn(region, limit - count, level+1, prefix + 3*quarter, lo, hi, mx, my, cx2, cy2);
+		return count;
+	}
+
+	// Index of the first code in [from,to) that's at least key (to, if none)
+	private int lowerBound(int key, int from, int to) {
+		while (from < to) {
+			int mid = (from + to) >>> 1;
+			if (codes[mid] < key) from = mid + 1;
+			else to = mid;
+		}
+		return from;
+	}
+
+	// Scale v from [lo,hi] to a grid coordinate, clamping
+	private static int scale(double v, double lo, double hi) {
+		if (!(hi > lo)) return 0;
+		int max = (1 << LEVELS) - 1;
+		double s = Math.floor((v - lo) / (hi - lo) * (1 << LEVELS));
+		return s < 0 ? 0 : s > max ? max : (int)s;
+	}
+
+	// Spread the low 15 bits of v out to the even bits
+	private static int interleave(int v) {
+		v = (v | (v << 8)) & 0x00FF00FF;
+		v = (v | (v << 4)) & 0x0F0F0F0F;
+		v = (v | (v << 2)) & 0x33333333;
+		v = (v | (v << 1)) & 0x55555555;
+		return v;
+	}
+}
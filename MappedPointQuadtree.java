@@ -0,0 +1,368 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A read-only point quadtree stored in a file, queried straight out of memory-mapped pages
+ * without reading it in, so opening one is near-instant and only the pages a query touches take up memory.
+ * write() saves a built PointQuadtree; build() makes the file straight from a file of points, for point sets too big
+ * to hold in the heap as a tree; open() maps the file back.
+ *
+ * The file is a 64-byte header (magic number, point count, the tree's rectangle) followed by one 32-byte record
+ * per node: the anchor's x and y, then the record numbers of its four children (-1 for none).
+ * Records are in preorder, so each subtree is a contiguous run of records, and a node's region isn't stored
+ * but recomputed from its ancestors' anchors on the way down.
+ * Queries report record numbers (0 through size()-1), and getX/getY give their coordinates.
+ * Files over 2GB are mapped as several buffers, since one buffer can only address 2GB.
+ */
+public class MappedPointQuadtree {
+	private static final int MAGIC = 0x50515431;			// "PQT1"
+	private static final int HEADER = 64;					// bytes before the first record
+	private static final int RECORD = 32;					// bytes per node
+	private static final int SEGMENT_BITS = 30;				// map the file 1GB at a time (a multiple of RECORD)
+	private static final int NONE = -1;						// child record meaning "no child"
+
+	private final MappedByteBuffer[] segments;				// the file, in order
+	private final int size;									// number of records
+	private final double x1, y1, x2, y2;					// the whole tree's region
+
+	private MappedPointQuadtree(MappedByteBuffer[] segments, int size, double x1, double y1, double x2, double y2) {
+		this.segments = segments;
+		this.size = size;
+		this.x1 = x1; this.y1 = y1; this.x2 = x2; this.y2 = y2;
+	}
+
+	/**
+	 * Saves the tree (e.g., from PointQuadtree.build) to the file, replacing whatever was there
+	 */
+	public static void write(PointQuadtree<? extends Point2D> tree, Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer buf = ByteBuffer.allocateDirect(1 << 20);
+			buf.putInt(MAGIC).putInt(0).putLong(tree.size());
+			buf.putDouble(tree.getX1()).putDouble(tree.getY1()).putDouble(tree.getX2()).putDouble(tree.getY2());
+			while (buf.position() < HEADER) buf.put((byte)0);
+			write(tree, 0, channel, buf);
+			buf.flip();
+			while (buf.hasRemaining()) channel.write(buf);
+		}
+	}
+
+	/**
+	 * Makes a quadtree file straight from a file of points (CSV or binary, as PointLoader reads them), replacing
+	 * whatever was there, without ever holding the points or a tree in the heap.
+	 * The points are streamed into the file as bare records, which is then mapped and the tree built in place in it,
+	 * the way PointQuadtree.build does in memory: each range of records gets its median along the split axis as the
+	 * anchor, moved to the front, with the rest partitioned (by swapping records) into its quadrants, in order.
+	 * So the working memory is the file's own pages, which the OS pages in and out as the build sweeps over them.
+	 * @return	how many points there were
+	 */
+	public static int build(PointLoader loader, Path points, Path file,
+			double x1, double y1, double x2, double y2) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			// Header (the count is filled in at the end), then one record per point, with no children yet
+			ByteBuffer buf = ByteBuffer.allocateDirect(1 << 20);
+			buf.putInt(MAGIC).putInt(0).putLong(0);
+			buf.putDouble(x1).putDouble(y1).putDouble(x2).putDouble(y2);
+			while (buf.position() < HEADER) buf.put((byte)0);
+			long count;
+			try {
+				count = loader.load(points, (xs, ys, n) -> {
+					try {
+						for (int i = 0; i < n; i++) {
+							if (buf.remaining() < RECORD) {
+								buf.flip();
+								while (buf.hasRemaining()) channel.write(buf);
+								buf.clear();
+							}
+							buf.putDouble(xs[i]).putDouble(ys[i]).putInt(NONE).putInt(NONE).putInt(NONE).putInt(NONE);
+						}
+					}
+					catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				});
+			}
+			catch (UncheckedIOException e) {
+				throw e.getCause();
+			}
+			buf.flip();
+			while (buf.hasRemaining()) channel.write(buf);
+			if (count > Integer.MAX_VALUE) throw new IOException(points+" has too many points ("+count+") for one quadtree file");
+			buf.clear();
+			buf.putLong(count).flip();
+			channel.write(buf, 8);
+
+			// Map it all and link up the records
+			long length = HEADER + count * RECORD;
+			int numSegments = (int)((length + (1L << SEGMENT_BITS) - 1) >>> SEGMENT_BITS);
+			MappedByteBuffer[] segments = new MappedByteBuffer[numSegments];
+			for (int s = 0; s < numSegments; s++) {
+				long start = (long)s << SEGMENT_BITS;
+				segments[s] = channel.map(FileChannel.MapMode.READ_WRITE, start, Math.min(1L << SEGMENT_BITS, length - start));
+			}
+			build(segments, 0, (int)count, true);
+			for (MappedByteBuffer segment : segments) segment.force();
+			return (int)count;
+		}
+	}
+
+	/**
+	 * Maps a file saved by write() or build()
+	 */
+	public static MappedPointQuadtree open(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long length = channel.size();
+			if (length < HEADER) throw new IOException(file+" is too short to be a quadtree file");
+			int numSegments = (int)((length + (1L << SEGMENT_BITS) - 1) >>> SEGMENT_BITS);
+			MappedByteBuffer[] segments = new MappedByteBuffer[numSegments];
+			for (int s = 0; s < numSegments; s++) {
+				long start = (long)s << SEGMENT_BITS;
+				segments[s] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(1L << SEGMENT_BITS, length - start));
+			}
+			// (The mappings stay valid after the channel is closed)
+			ByteBuffer header = segments[0];
+			if (header.getInt(0) != MAGIC) throw new IOException(file+" isn't a quadtree file");
+			long count = header.getLong(8);
+			if (count > Integer.MAX_VALUE || HEADER + count * RECORD != length) {
+				throw new IOException(file+" is truncated or corrupt ("+count+" points in "+length+" bytes)");
+			}
+			return new MappedPointQuadtree(segments, (int)count,
+					header.getDouble(16), header.getDouble(24), header.getDouble(32), header.getDouble(40));
+		}
+	}
+
+	public double getX1() {
+		return x1;
+	}
+
+	public double getY1() {
+		return y1;
+	}
+
+	public double getX2() {
+		return x2;
+	}
+
+	public double getY2() {
+		return y2;
+	}
+
+	/**
+	 * Finds the number of points in the quadtree
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the x coordinate of record i, 0 through size()-1
+	 */
+	public double getX(int i) {
+		long offset = offset(i);
+		return segments[(int)(offset >>> SEGMENT_BITS)].getDouble(position(offset));
+	}
+
+	/**
+	 * Returns the y coordinate of record i, 0 through size()-1
+	 */
+	public double getY(int i) {
+		long offset = offset(i) + 8;
+		return segments[(int)(offset >>> SEGMENT_BITS)].getDouble(position(offset));
+	}
+
+	/**
+	 * Uses the quadtree to find all points within the circle, adding their record numbers to the list.
+	 * Safe to call from several threads at once.
+	 * @param cx	circle center x
+	 * @param cy  	circle center y
+	 * @param cr  	circle radius
+	 * @param out	where to add the record numbers of the points in the circle (and the qt's rectangle)
+	 */
+	public void findInCircle(double cx, double cy, double cr, IntList out) {
+		if (size > 0) findInCircle(0, size, x1, y1, x2, y2, cx, cy, cr, out);
+	}
+
+	/**
+	 * Counts the points within the circle
+	 * @param cx	circle center x
+	 * @param cy  	circle center y
+	 * @param cr  	circle radius
+	 * @return		how many points are in the circle (and the qt's rectangle)
+	 */
+	public int countInCircle(double cx, double cy, double cr) {
+		return size == 0 ? 0 : countInCircle(0, size, x1, y1, x2, y2, cx, cy, cr);
+	}
+
+	// Write the subtree's records in preorder, the root as record number i; a child's number is i+1 plus the sizes of its earlier siblings
+	private static void write(PointQuadtree<? extends Point2D> t, int i, FileChannel channel, ByteBuffer buf) throws IOException {
+		if (buf.remaining() < RECORD) {
+			buf.flip();
+			while (buf.hasRemaining()) channel.write(buf);
+			buf.clear();
+		}
+		buf.putDouble(t.getPoint().getX()).putDouble(t.getPoint().getY());
+		int next = i + 1;
+		for (int q = 1; q <= 4; q++) {
+			PointQuadtree<? extends Point2D> c = t.getChild(q);
+			buf.putInt(c == null ? NONE : next);
+			if (c != null) next += c.size();
+		}
+		next = i + 1;
+		for (int q = 1; q <= 4; q++) {
+			PointQuadtree<? extends Point2D> c = t.getChild(q);
+			if (c != null) {
+				write(c, next, channel, buf);
+				next += c.size();
+			}
+		}
+	}
+
+	// Make records [from,to) into a balanced subtree in preorder, as PointQuadtree.build does: the median along the
+	// split axis is the anchor, at from, and the rest are partitioned into its quadrants' runs, in quadrant order.
+	// As there, points along the split axis go by the side of the median selection left them on (record mid is the
+	// one that was at the front), and on the other axis ties with the anchor alternate sides.
+	private static void build(MappedByteBuffer[] segments, int from, int to, boolean byX) {
+		if (from >= to) return;
+		int mid = (from + to) >>> 1;
+		select(segments, from, to, mid, byX ? 0 : 8);
+		swap(segments, from, mid);
+		double other = coord(segments, from, byX ? 8 : 0);
+
+		// Split each half on the other axis, low side first; by x that leaves the runs in order 1,3,2,4, by y 1,2,3,4
+		boolean[] flip = new boolean[1];
+		int lowEnd = partition(segments, from + 1, mid + 1, other, byX ? 8 : 0, flip);
+		int highEnd = partition(segments, mid + 1, to, other, byX ? 8 : 0, flip);
+		int[] starts;
+		if (byX) {
+			// Swap quadrant 3's run with quadrant 2's, by reversing each and then both together
+			reverse(segments, lowEnd, mid + 1);
+			reverse(segments, mid + 1, highEnd);
+			reverse(segments, lowEnd, highEnd);
+			int q2 = lowEnd, q3 = lowEnd + (highEnd - mid - 1);
+			starts = new int[] { from + 1, q2, q3, highEnd, to };
+		}
+		else {
+			starts = new int[] { from + 1, lowEnd, mid + 1, highEnd, to };
+		}
+
+		long offset = offset(from) + 16;
+		ByteBuffer seg = segments[(int)(offset >>> SEGMENT_BITS)];
+		int pos = position(offset);
+		for (int q = 0; q < 4; q++) {
+			seg.putInt(pos + 4 * q, starts[q] < starts[q+1] ? starts[q] : NONE);
+		}
+		for (int q = 0; q < 4; q++) {
+			build(segments, starts[q], starts[q+1], !byX);
+		}
+	}
+
+	// Move the records in [from,to) whose coordinate (at byte field of the record) is on the low side of value to the
+	// front, ties alternating sides (carrying on from flip[0]); returns where the high side starts
+	private static int partition(MappedByteBuffer[] segments, int from, int to, double value, int field, boolean[] flip) {
+		int low = from;
+		for (int i = from; i < to; i++) {
+			double c = coord(segments, i, field);
+			if (c < value || (c == value && (flip[0] = !flip[0]))) swap(segments, i, low++);
+		}
+		return low;
+	}
+
+	// Rearrange records [from,to) so that the k-th smallest by the coordinate at byte field is record k
+	private static void select(MappedByteBuffer[] segments, int from, int to, int k, int field) {
+		int l = from, r = to - 1;
+		while (l < r) {
+			double pivot = coord(segments, k, field);
+			int i = l, j = r;
+			do {
+				while (coord(segments, i, field) < pivot) i++;
+				while (pivot < coord(segments, j, field)) j--;
+				if (i <= j) {
+					swap(segments, i, j);
+					i++; j--;
+				}
+			} while (i <= j);
+			if (j < k) l = i;
+			if (k < i) r = j;
+		}
+	}
+
+	private static void reverse(MappedByteBuffer[] segments, int from, int to) {
+		for (int i = from, j = to - 1; i < j; i++, j--) swap(segments, i, j);
+	}
+
+	private static double coord(MappedByteBuffer[] segments, int i, int field) {
+		long offset = offset(i) + field;
+		return segments[(int)(offset >>> SEGMENT_BITS)].getDouble(position(offset));
+	}
+
+	// Swap records i and j's points (their children aren't linked up until they've stopped moving)
+	private static void swap(MappedByteBuffer[] segments, int i, int j) {
+		if (i == j) return;
+		long oi = offset(i), oj = offset(j);
+		ByteBuffer si = segments[(int)(oi >>> SEGMENT_BITS)], sj = segments[(int)(oj >>> SEGMENT_BITS)];
+		int pi = position(oi), pj = position(oj);
+		double x = si.getDouble(pi), y = si.getDouble(pi + 8);
+		si.putDouble(pi, sj.getDouble(pj)).putDouble(pi + 8, sj.getDouble(pj + 8));
+		sj.putDouble(pj, x).putDouble(pj + 8, y);
+	}
+
+	// Report the points in the subtree at record i, which runs up to (not including) record end, within the circle
+	private void findInCircle(int i, int end, double rx1, double ry1, double rx2, double ry2,
+			double cx, double cy, double cr, IntList out) {
+		if (!Geometry.circleIntersectsRectangle(cx, cy, cr, rx1, ry1, rx2, ry2)) return;
+		if (Geometry.rectangleInsideCircle(rx1, ry1, rx2, ry2, cx, cy, cr)) {
+			// The whole subtree is in the circle, and its records are all together
+			for (int j = i; j < end; j++) out.add(j);
+			return;
+		}
+		long offset = offset(i);
+		ByteBuffer seg = segments[(int)(offset >>> SEGMENT_BITS)];
+		int pos = position(offset);
+		double ax = seg.getDouble(pos), ay = seg.getDouble(pos + 8);
+		if (Geometry.pointInCircle(ax, ay, cx, cy, cr)) out.add(i);
+		int c1 = seg.getInt(pos + 16), c2 = seg.getInt(pos + 20), c3 = seg.getInt(pos + 24), c4 = seg.getInt(pos + 28);
+		if (c1 != NONE) findInCircle(c1, after(c2, c3, c4, end), rx1, ry1, ax, ay, cx, cy, cr, out);
+		if (c2 != NONE) findInCircle(c2, after(c3, c4, NONE, end), ax, ry1, rx2, ay, cx, cy, cr, out);
+		if (c3 != NONE) findInCircle(c3, after(c4, NONE, NONE, end), rx1, ay, ax, ry2, cx, cy, cr, out);
+		if (c4 != NONE) findInCircle(c4, end, ax, ay, rx2, ry2, cx, cy, cr, out);
+	}
+
+	private int countInCircle(int i, int end, double rx1, double ry1, double rx2, double ry2,
+			double cx, double cy, double cr) {
+		if (!Geometry.circleIntersectsRectangle(cx, cy, cr, rx1, ry1, rx2, ry2)) return 0;
+		if (Geometry.rectangleInsideCircle(rx1, ry1, rx2, ry2, cx, cy, cr)) return end - i;
+		long offset = offset(i);
+		ByteBuffer seg = segments[(int)(offset >>> SEGMENT_BITS)];
+		int pos = position(offset);
+		double ax = seg.getDouble(pos), ay = seg.getDouble(pos + 8);
+		int count = Geometry.pointInCircle(ax, ay, cx, cy, cr) ? 1 : 0;
+		int c1 = seg.getInt(pos + 16), c2 = seg.getInt(pos + 20), c3 = seg.getInt(pos + 24), c4 = seg.getInt(pos + 28);
+		if (c1 != NONE) count += countInCircle(c1, after(c2, c3, c4, end), rx1, ry1, ax, ay, cx, cy, cr);
+		if (c2 != NONE) count += countInCircle(c2, after(c3, c4, NONE, end), ax, ry1, rx2, ay, cx, cy, cr);
+		if (c3 != NONE) count += countInCircle(c3, after(c4, NONE, NONE, end), rx1, ay, ax, ry2, cx, cy, cr);
+		if (c4 != NONE) count += countInCircle(c4, end, ax, ay, rx2, ry2, cx, cy, cr);
+		return count;
+	}
+
+	// Where a child's subtree ends: at the first later sibling that exists, else where the parent's does
+	private static int after(int a, int b, int c, int end) {
+		if (a != NONE) return a;
+		if (b != NONE) return b;
+		if (c != NONE) return c;
+		return end;
+	}
+
+	private static long offset(int i) {
+		return HEADER + (long)i * RECORD;
+	}
+
+	private static int position(long offset) {
+		return (int)(offset & ((1L << SEGMENT_BITS) - 1));
+	}
+}
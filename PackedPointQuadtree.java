@@ -0,0 +1,276 @@
+import java.util.Arrays;
+
+/**
+ * A point quadtree over bare coordinates, stored as parallel primitive arrays rather than objects:
+ * point i is at (xs[i],ys[i]) and anchors its own node, whose children are indices into the same arrays.
+ * That's 32 bytes per point and no per-point objects at all, and queries report indices into an IntList,
+ * so nothing is allocated on the query path.
+ * Quadrant numbering matches PointQuadtree (1 upper-left, 2 upper-right, 3 lower-left, 4 lower-right), and as there,
+ * points on an anchor's lines are shared out between the quadrants on either side, so copies of the same
+ * coordinate don't pile up into one long chain.
+ * Queries recurse, so prefer build() over inserting sorted or clustered data one point at a time.
+ */
+public class PackedPointQuadtree {
+	private static final int NONE = -1;		// child index meaning "no child"
+
+	private double x1, y1;					// upper-left corner of the region
+	private double x2, y2;					// bottom-right corner of the region
+	private double[] xs, ys;				// coordinates of point i
+	private int[] children;					// children[4*i + q-1] is the index anchoring node i's quadrant q, or NONE
+	private int size;						// number of points, in indices [0,size)
+	private int root = NONE;				// index of the point anchoring the whole tree
+
+	/**
+	 * Initializes an empty quadtree over the rectangle
+	 */
+	public PackedPointQuadtree(double x1, double y1, double x2, double y2) {
+		this(x1, y1, x2, y2, 16);
+	}
+
+	/**
+	 * Initializes an empty quadtree over the rectangle
+	 * @param capacity	how many points to make room for up front
+	 */
+	public PackedPointQuadtree(double x1, double y1, double x2, double y2, int capacity) {
+		this.x1 = x1; this.y1 = y1; this.x2 = x2; this.y2 = y2;
+		capacity = Math.max(capacity, 1);
+		xs = new double[capacity];
+		ys = new double[capacity];
+		children = new int[4 * capacity];
+		Arrays.fill(children, NONE);
+	}
+
+	/**
+	 * Builds a balanced quadtree over the first n coordinates, in one pass, as PointQuadtree.build does.
+	 * Point i of the tree is (xs[i],ys[i]); the arrays are copied, not kept.
+	 */
+	public static PackedPointQuadtree build(double[] xs, double[] ys, int n, double x1, double y1, double x2, double y2) {
+		PackedPointQuadtree tree = new PackedPointQuadtree(x1, y1, x2, y2, n);
+		System.arraycopy(xs, 0, tree.xs, 0, n);
+		System.arraycopy(ys, 0, tree.ys, 0, n);
+		tree.size = n;
+		int[] order = new int[n];
+		for (int i = 0; i < n; i++) order[i] = i;
+		tree.root = tree.build(order, new int[n], 0, n, true);
+		return tree;
+	}
+
+	public double getX1() {
+		return x1;
+	}
+
+	public double getY1() {
+		return y1;
+	}
+
+	public double getX2() {
+		return x2;
+	}
+
+	public double getY2() {
+		return y2;
+	}
+
+	/**
+	 * Returns the x coordinate of point i, 0 through size()-1
+	 */
+	public double getX(int i) {
+		return xs[i];
+	}
+
+	/**
+	 * Returns the y coordinate of point i, 0 through size()-1
+	 */
+	public double getY(int i) {
+		return ys[i];
+	}
+
+	/**
+	 * Finds the number of points in the quadtree
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Inserts the point into the tree
+	 * @return	its index, for getX/getY and query results
+	 */
+	public int insert(double x, double y) {
+		if (size == xs.length) grow();
+		int i = size++;
+		xs[i] = x;
+		ys[i] = y;
+		if (root == NONE) {
+			root = i;
+		}
+		else {
+			// Walk down to an empty quadrant
+			int node = root, depth = 0;
+			while (true) {
+				int slot = 4 * node + quadrantFor(node, x, y, i, depth++) - 1;
+				if (children[slot] == NONE) {
+					children[slot] = i;
+					break;
+				}
+				node = children[slot];
+			}
+		}
+		return i;
+	}
+
+	/**
+	 * Uses the quadtree to find all points within the circle, adding their indices to the list
+	 * @param cx	circle center x
+	 * @param cy  	circle center y
+	 * @param cr  	circle radius
+	 * @param out	where to add the indices of the points in the circle (and the qt's rectangle)
+	 */
+	public void findInCircle(double cx, double cy, double cr, IntList out) {
+		if (root != NONE) findInCircle(root, x1, y1, x2, y2, cx, cy, cr, out);
+	}
+
+	/**
+	 * Counts the points within the circle
+	 * @param cx	circle center x
+	 * @param cy  	circle center y
+	 * @param cr  	circle radius
+	 * @return		how many points are in the circle (and the qt's rectangle)
+	 */
+	public int countInCircle(double cx, double cy, double cr) {
+		return root == NONE ? 0 : countInCircle(root, x1, y1, x2, y2, cx, cy, cr);
+	}
+
+	// Find the quadrant of node's anchor to insert point i at a position into: the one it belongs in, or if it's on
+	// the anchor's lines, an empty one of those that can hold it; failing that, one picked by hashing i and the
+	// depth (there are no subtree sizes to balance by, but this spreads copies of a point out just as evenly)
+	private int quadrantFor(int node, double px, double py, int i, int depth) {
+		double ax = xs[node], ay = ys[node];
+		if (px != ax && py != ay) return quadrant(px < ax, py < ay);
+		int c = 4 * node, eligible = 0;
+		for (int q = 1; q <= 4; q++) {
+			if (inQuadrant(q, px, py, ax, ay)) {
+				if (children[c + q - 1] == NONE) return q;
+				eligible++;
+			}
+		}
+		int h = (i * 0x9E3779B9) ^ (depth * 0x85EBCA6B);
+		h ^= h >>> 16;
+		int pick = (h & Integer.MAX_VALUE) % eligible;
+		for (int q = 1; ; q++) {
+			if (inQuadrant(q, px, py, ax, ay) && pick-- == 0) return q;
+		}
+	}
+
+	// Whether quadrant q of an anchor at (ax,ay) holds the position, edges included
+	private static boolean inQuadrant(int q, double px, double py, double ax, double ay) {
+		boolean left = q == 1 || q == 3, top = q <= 2;
+		return (left ? px <= ax : px >= ax) && (top ? py <= ay : py >= ay);
+	}
+
+	private static int quadrant(boolean left, boolean top) {
+		if (left && top) return 1;
+		if (top) return 2;
+		if (left) return 3;
+		return 4;
+	}
+
+	private void grow() {
+		int capacity = xs.length * 2;
+		xs = Arrays.copyOf(xs, capacity);
+		ys = Arrays.copyOf(ys, capacity);
+		int old = children.length;
+		children = Arrays.copyOf(children, 4 * capacity);
+		Arrays.fill(children, old, children.length, NONE);
+	}
+
+	// Report the node and its descendants in the circle; the node's region is passed down rather than stored
+	private void findInCircle(int node, double rx1, double ry1, double rx2, double ry2,
+			double cx, double cy, double cr, IntList out) {
+		if (!Geometry.circleIntersectsRectangle(cx, cy, cr, rx1, ry1, rx2, ry2)) return;
+		double ax = xs[node], ay = ys[node];
+		if (Geometry.pointInCircle(ax, ay, cx, cy, cr)) out.add(node);
+		int c = 4 * node;
+		if (children[c] != NONE) findInCircle(children[c], rx1, ry1, ax, ay, cx, cy, cr, out);
+		if (children[c+1] != NONE) findInCircle(children[c+1], ax, ry1, rx2, ay, cx, cy, cr, out);
+		if (children[c+2] != NONE) findInCircle(children[c+2], rx1, ay, ax, ry2, cx, cy, cr, out);
+		if (children[c+3] != NONE) findInCircle(children[c+3], ax, ay, rx2, ry2, cx, cy, cr, out);
+	}
+
+	private int countInCircle(int node, double rx1, double ry1, double rx2, double ry2,
+			double cx, double cy, double cr) {
+		if (!Geometry.circleIntersectsRectangle(cx, cy, cr, rx1, ry1, rx2, ry2)) return 0;
+		double ax = xs[node], ay = ys[node];
+		int count = Geometry.pointInCircle(ax, ay, cx, cy, cr) ? 1 : 0;
+		int c = 4 * node;
+		if (children[c] != NONE) count += countInCircle(children[c], rx1, ry1, ax, ay, cx, cy, cr);
+		if (children[c+1] != NONE) count += countInCircle(children[c+1], ax, ry1, rx2, ay, cx, cy, cr);
+		if (children[c+2] != NONE) count += countInCircle(children[c+2], rx1, ay, ax, ry2, cx, cy, cr);
+		if (children[c+3] != NONE) count += countInCircle(children[c+3], ax, ay, rx2, ry2, cx, cy, cr);
+		return count;
+	}
+
+	// Recursively link up a balanced subtree over the indices in order[from,to); returns its anchor (or NONE)
+	private int build(int[] order, int[] scratch, int from, int to, boolean byX) {
+		if (from >= to) return NONE;
+
+		// Anchor at the median, moved to the front of the range
+		int mid = (from + to) >>> 1;
+		select(order, from, to, mid, byX ? xs : ys);
+		int anchor = order[mid];
+		order[mid] = order[from];
+		order[from] = anchor;
+
+		// Partition the rest by quadrant, as PointQuadtree.build does: along the split axis by which side of the median
+		// selection left them (order[mid] is now the one that was at the front), and on the other axis by comparing
+		// with the anchor, alternating sides for ties (restarting the alternation for the second pass)
+		double[] others = byX ? ys : xs;
+		double other = others[anchor];
+		int[] starts = new int[5], next = new int[5];
+		boolean flip = false;
+		for (int i = from + 1; i < to; i++) {
+			double c = others[order[i]];
+			boolean low = c < other || (c == other && (flip = !flip));
+			starts[byX ? quadrant(i <= mid, low) : quadrant(low, i <= mid)]++;
+		}
+		int count = starts[1];
+		starts[1] = from + 1;
+		for (int q = 2; q <= 4; q++) {
+			int c = starts[q];
+			starts[q] = starts[q-1] + count;
+			count = c;
+		}
+		System.arraycopy(starts, 1, next, 1, 4);
+		flip = false;
+		for (int i = from + 1; i < to; i++) {
+			double c = others[order[i]];
+			boolean low = c < other || (c == other && (flip = !flip));
+			scratch[next[byX ? quadrant(i <= mid, low) : quadrant(low, i <= mid)]++] = order[i];
+		}
+		System.arraycopy(scratch, from + 1, order, from + 1, to - from - 1);
+
+		for (int q = 1; q <= 4; q++) {
+			children[4 * anchor + q - 1] = build(order, scratch, starts[q], next[q], !byX);
+		}
+		return anchor;
+	}
+
+	// Rearrange order[from,to) so that the k-th smallest by coords is at index k
+	private static void select(int[] order, int from, int to, int k, double[] coords) {
+		int l = from, r = to - 1;
+		while (l < r) {
+			double pivot = coords[order[k]];
+			int i = l, j = r;
+			do {
+				while (coords[order[i]] < pivot) i++;
+				while (pivot < coords[order[j]]) j--;
+				if (i <= j) {
+					int tmp = order[i]; order[i] = order[j]; order[j] = tmp;
+					i++; j--;
+				}
+			} while (i <= j);
+			if (j < k) l = i;
+			if (k < i) r = j;
+		}
+	}
+}
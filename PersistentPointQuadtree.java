@@ -0,0 +1,268 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+
+/**
+ * An immutable point quadtree: insert and remove leave this tree alone and return a new one,
+ * which shares every subtree off the changed path with the old one (so each costs O(depth) new nodes, not a copy).
+ * So keeping a snapshot, e.g., the tree as of every simulation tick, is just keeping a reference.
+ * Routing and quadrant numbering match PointQuadtree. The points mustn't be moved while any snapshot holds them.
+ */
+public class PersistentPointQuadtree<E extends Point2D> implements PointIndex<E> {
+	/**
+	 * An immutable node: a point anchoring a rectangle, with children at the subdivided quadrants
+	 */
+	private static class Node<E extends Point2D> {
+		final E point;							// the point anchoring this node
+		final double x1, y1, x2, y2;			// the region
+		final Node<E> c1, c2, c3, c4;			// children
+		final int size;							// number of points here and in descendants
+
+		Node(E point, double x1, double y1, double x2, double y2, Node<E> c1, Node<E> c2, Node<E> c3, Node<E> c4) {
+			this.point = point;
+			this.x1 = x1; this.y1 = y1; this.x2 = x2; this.y2 = y2;
+			this.c1 = c1; this.c2 = c2; this.c3 = c3; this.c4 = c4;
+			size = 1 + (c1 == null ? 0 : c1.size) + (c2 == null ? 0 : c2.size)
+					+ (c3 == null ? 0 : c3.size) + (c4 == null ? 0 : c4.size);
+		}
+	}
+
+	private final double x1, y1, x2, y2;		// the whole tree's region
+	private final Node<E> root;					// null if empty
+
+	/**
+	 * Initializes an empty quadtree over the rectangle
+	 */
+	public PersistentPointQuadtree(double x1, double y1, double x2, double y2) {
+		this(x1, y1, x2, y2, null);
+	}
+
+	private PersistentPointQuadtree(double x1, double y1, double x2, double y2, Node<E> root) {
+		this.x1 = x1; this.y1 = y1; this.x2 = x2; this.y2 = y2;
+		this.root = root;
+	}
+
+	/**
+	 * Builds a balanced quadtree holding all the points in the rectangle, as PointQuadtree.build does
+	 */
+	public static <E extends Point2D> PersistentPointQuadtree<E> build(Collection<E> points, double x1, double y1, double x2, double y2) {
+		return new PersistentPointQuadtree<E>(x1, y1, x2, y2, freeze(PointQuadtree.build(points, x1, y1, x2, y2)));
+	}
+
+	public boolean isEmpty() {
+		return root == null;
+	}
+
+	/**
+	 * Returns a tree that also holds the point; this one is unchanged
+	 */
+	public PersistentPointQuadtree<E> insert(E p) {
+		Node<E> updated = root == null ? new Node<E>(p, x1, y1, x2, y2, null, null, null, null) : insert(root, p);
+		return new PersistentPointQuadtree<E>(x1, y1, x2, y2, updated);
+	}
+
+	/**
+	 * Returns a tree without the point (or this same tree if it isn't here); this one is unchanged.
+	 * Removing an anchor rebuilds its descendants as a balanced subtree (PointQuadtree.remove instead widens its
+	 * largest child's subtree in place, which can't be done to nodes that other snapshots share).
+	 * @param p		the point to remove, at the position it was inserted
+	 */
+	public PersistentPointQuadtree<E> remove(E p) {
+		Node<E> updated = remove(root, p);
+		return updated == root ? this : new PersistentPointQuadtree<E>(x1, y1, x2, y2, updated);
+	}
+
+	public int size() {
+		return root == null ? 0 : root.size;
+	}
+
+	public List<E> allPoints() {
+		List<E> all = new ArrayList<E>(size());
+		collect(root, all);
+		return all;
+	}
+
+	public List<E> findInCircle(double cx, double cy, double cr) {
+		List<E> hits = new ArrayList<E>();
+		findInCircle(cx, cy, cr, hits);
+		return hits;
+	}
+
+	public void findInCircle(double cx, double cy, double cr, Collection<? super E> out) {
+		findInCircle(root, cx, cy, cr, (Consumer<E>)out::add);
+	}
+
+	public void findInCircle(double cx, double cy, double cr, Consumer<? super E> visitor) {
+		findInCircle(root, cx, cy, cr, visitor);
+	}
+
+	public int countInCircle(double cx, double cy, double cr) {
+		return countInCircle(cx, cy, cr, Integer.MAX_VALUE);
+	}
+
+	public int countInCircle(double cx, double cy, double cr, int limit) {
+		return countInCircle(root, cx, cy, cr, limit);
+	}
+
+	public void findInCircles(double[] cx, double[] cy, double[] cr, ResultSink<? super E> sink) {
+		int n = cx.length;
+		if (cy.length != n || cr.length != n) throw new IllegalArgumentException("need the same number of x's, y's, and r's");
+		for (int i = 0; i < n; i++) {
+			final int query = i;
+			findInCircle(root, cx[i], cy[i], cr[i], p -> sink.accept(query, p));
+		}
+	}
+
+	public List<E> findIn(Geometry.Region region) {
+		List<E> hits = new ArrayList<E>();
+		findIn(root, region, hits);
+		return hits;
+	}
+
+	public void findIn(Geometry.Region region, Collection<? super E> out) {
+		findIn(root, region, out);
+	}
+
+	/**
+	 * Finds the k points closest to the location, best-first as PointQuadtree.kNearest does
+	 */
+	public List<E> kNearest(double x, double y, int k) {
+		List<E> result = new ArrayList<E>();
+		if (k <= 0 || root == null) return result;
+		PriorityQueue<PointQuadtree.Candidate<Node<E>>> frontier = new PriorityQueue<PointQuadtree.Candidate<Node<E>>>();
+		PriorityQueue<PointQuadtree.Candidate<E>> best = new PriorityQueue<PointQuadtree.Candidate<E>>(k + 1, Collections.reverseOrder());
+		frontier.add(new PointQuadtree.Candidate<Node<E>>(root, Geometry.pointRectangleDistanceSquared(x, y, root.x1, root.y1, root.x2, root.y2)));
+		while (!frontier.isEmpty()) {
+			PointQuadtree.Candidate<Node<E>> next = frontier.poll();
+			if (best.size() == k && next.dist2 > best.peek().dist2) break;
+			Node<E> n = next.item;
+			double dx = n.point.getX() - x, dy = n.point.getY() - y;
+			double d2 = dx*dx + dy*dy;
+			if (best.size() < k) {
+				best.add(new PointQuadtree.Candidate<E>(n.point, d2));
+			}
+			else if (d2 < best.peek().dist2) {
+				best.poll();
+				best.add(new PointQuadtree.Candidate<E>(n.point, d2));
+			}
+			for (int q = 1; q <= 4; q++) {
+				Node<E> c = child(n, q);
+				if (c == null) continue;
+				double cd2 = Geometry.pointRectangleDistanceSquared(x, y, c.x1, c.y1, c.x2, c.y2);
+				if (best.size() < k || cd2 <= best.peek().dist2) {
+					frontier.add(new PointQuadtree.Candidate<Node<E>>(c, cd2));
+				}
+			}
+		}
+		while (!best.isEmpty()) result.add(best.poll().item);
+		Collections.reverse(result);
+		return result;
+	}
+
+	// Return a copy of the subtree with p added, sharing all the nodes off the path to p's new leaf
+	// (a point on an anchor's lines goes into the least full quadrant that can hold it, as in PointQuadtree)
+	private static <E extends Point2D> Node<E> insert(Node<E> n, E p) {
+		double ax = n.point.getX(), ay = n.point.getY(), px = p.getX(), py = p.getY();
+		int q = 0;
+		for (int i = 1; i <= 4; i++) {
+			if (inQuadrant(i, px, py, ax, ay) && (q == 0 || size(child(n, i)) < size(child(n, q)))) q = i;
+		}
+		Node<E> c1 = n.c1, c2 = n.c2, c3 = n.c3, c4 = n.c4;
+		if (q == 1) c1 = c1 == null ? new Node<E>(p, n.x1, n.y1, ax, ay, null, null, null, null) : insert(c1, p);
+		else if (q == 2) c2 = c2 == null ? new Node<E>(p, ax, n.y1, n.x2, ay, null, null, null, null) : insert(c2, p);
+		else if (q == 3) c3 = c3 == null ? new Node<E>(p, n.x1, ay, ax, n.y2, null, null, null, null) : insert(c3, p);
+		else c4 = c4 == null ? new Node<E>(p, ax, ay, n.x2, n.y2, null, null, null, null) : insert(c4, p);
+		return new Node<E>(n.point, n.x1, n.y1, n.x2, n.y2, c1, c2, c3, c4);
+	}
+
+	// Return the subtree without p (the same node if p isn't in it), copying just the path down to p
+	// (looking in each quadrant that could hold it, if it's on an anchor's lines)
+	private static <E extends Point2D> Node<E> remove(Node<E> n, E p) {
+		if (n == null) return null;
+		if (n.point == p) {
+			List<E> orphans = new ArrayList<E>(n.size - 1);
+			collect(n.c1, orphans);
+			collect(n.c2, orphans);
+			collect(n.c3, orphans);
+			collect(n.c4, orphans);
+			return freeze(PointQuadtree.build(orphans, n.x1, n.y1, n.x2, n.y2));
+		}
+		double ax = n.point.getX(), ay = n.point.getY(), px = p.getX(), py = p.getY();
+		for (int q = 1; q <= 4; q++) {
+			Node<E> c = child(n, q);
+			if (c == null || !inQuadrant(q, px, py, ax, ay)) continue;
+			Node<E> removed = remove(c, p);
+			if (removed != c) {
+				return new Node<E>(n.point, n.x1, n.y1, n.x2, n.y2, q == 1 ? removed : n.c1, q == 2 ? removed : n.c2,
+						q == 3 ? removed : n.c3, q == 4 ? removed : n.c4);
+			}
+		}
+		return n;
+	}
+
+	private static <E extends Point2D> Node<E> child(Node<E> n, int q) {
+		return q == 1 ? n.c1 : q == 2 ? n.c2 : q == 3 ? n.c3 : n.c4;
+	}
+
+	private static int size(Node<?> n) {
+		return n == null ? 0 : n.size;
+	}
+
+	// Whether quadrant q of an anchor at (ax,ay) holds the position, edges included
+	private static boolean inQuadrant(int q, double px, double py, double ax, double ay) {
+		boolean left = q == 1 || q == 3, top = q <= 2;
+		return (left ? px <= ax : px >= ax) && (top ? py <= ay : py >= ay);
+	}
+
+	// Make an immutable copy of a (mutable) quadtree
+	private static <E extends Point2D> Node<E> freeze(PointQuadtree<E> t) {
+		if (t == null) return null;
+		return new Node<E>(t.getPoint(), t.getX1(), t.getY1(), t.getX2(), t.getY2(),
+				freeze(t.getChild(1)), freeze(t.getChild(2)), freeze(t.getChild(3)), freeze(t.getChild(4)));
+	}
+
+	private static <E extends Point2D> void collect(Node<E> n, Collection<? super E> out) {
+		if (n == null) return;
+		out.add(n.point);
+		collect(n.c1, out);
+		collect(n.c2, out);
+		collect(n.c3, out);
+		collect(n.c4, out);
+	}
+
+	private static <E extends Point2D> void findInCircle(Node<E> n, double cx, double cy, double cr, Consumer<? super E> visitor) {
+		if (n == null || !Geometry.circleIntersectsRectangle(cx, cy, cr, n.x1, n.y1, n.x2, n.y2)) return;
+		if (Geometry.pointInCircle(n.point.getX(), n.point.getY(), cx, cy, cr)) visitor.accept(n.point);
+		findInCircle(n.c1, cx, cy, cr, visitor);
+		findInCircle(n.c2, cx, cy, cr, visitor);
+		findInCircle(n.c3, cx, cy, cr, visitor);
+		findInCircle(n.c4, cx, cy, cr, visitor);
+	}
+
+	private static <E extends Point2D> void findIn(Node<E> n, Geometry.Region region, Collection<? super E> out) {
+		if (n == null) return;
+		if (region.containsRect(n.x1, n.y1, n.x2, n.y2)) {
+			collect(n, out);
+		}
+		else if (region.intersectsRect(n.x1, n.y1, n.x2, n.y2)) {
+			if (region.containsPoint(n.point.getX(), n.point.getY())) out.add(n.point);
+			findIn(n.c1, region, out);
+			findIn(n.c2, region, out);
+			findIn(n.c3, region, out);
+			findIn(n.c4, region, out);
+		}
+	}
+
+	private static <E extends Point2D> int countInCircle(Node<E> n, double cx, double cy, double cr, int limit) {
+		if (n == null || limit <= 0 || !Geometry.circleIntersectsRectangle(cx, cy, cr, n.x1, n.y1, n.x2, n.y2)) return 0;
+		int count = Geometry.pointInCircle(n.point.getX(), n.point.getY(), cx, cy, cr) ? 1 : 0;
+		if (count < limit) count += countInCircle(n.c1, cx, cy, cr, limit - count);
+		if (count < limit) count += countInCircle(n.c2, cx, cy, cr, limit - count);
+		if (count < limit) count += countInCircle(n.c3, cx, cy, cr, limit - count);
+		if (count < limit) count += countInCircle(n.c4, cx, cy, cr, limit - count);
+		return count;
+	}
+}
@@ -0,0 +1,81 @@
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Read-only queries over a set of 2D points, answered the same way by each of the spatial indexes
+ * (so callers that only search, like the GUIs' queries, can work with any of them, or any snapshot of one)
+ */
+public interface PointIndex<E extends Point2D> {
+	/**
+	 * Receives the results of a batch of queries: each hit, tagged with which query found it
+	 */
+	public interface ResultSink<E> {
+		public void accept(int query, E point);
+	}
+
+	/**
+	 * Finds the number of points in the index
+	 */
+	public int size();
+
+	/**
+	 * Builds a list of all the points in the index
+	 */
+	public List<E> allPoints();
+
+	/**
+	 * Finds all points within the circle
+	 * @param cx	circle center x
+	 * @param cy  	circle center y
+	 * @param cr  	circle radius
+	 * @return    	the points in the circle (and the index's rectangle)
+	 */
+	public List<E> findInCircle(double cx, double cy, double cr);
+
+	/**
+	 * Finds all points within the circle, adding them to the caller's collection
+	 */
+	public void findInCircle(double cx, double cy, double cr, Collection<? super E> out);
+
+	/**
+	 * Finds all points within the circle, handing each one to the visitor
+	 */
+	public void findInCircle(double cx, double cy, double cr, Consumer<? super E> visitor);
+
+	/**
+	 * Counts the points within the circle
+	 */
+	public int countInCircle(double cx, double cy, double cr);
+
+	/**
+	 * Counts the points within the circle, stopping early once the limit is reached
+	 * @return	how many points are in the circle, at most limit
+	 */
+	public int countInCircle(double cx, double cy, double cr, int limit);
+
+	/**
+	 * Answers a batch of circle queries
+	 * @param cx	circle center x coordinates, one per query
+	 * @param cy	circle center y coordinates
+	 * @param cr	circle radii
+	 * @param sink	called with (i, point) for each point in circle i (and the index's rectangle)
+	 */
+	public void findInCircles(double[] cx, double[] cy, double[] cr, ResultSink<? super E> sink);
+
+	/**
+	 * Finds all points within the region (a circle, rectangle, convex polygon, ...)
+	 */
+	public List<E> findIn(Geometry.Region region);
+
+	/**
+	 * Finds all points within the region, adding them to the caller's collection
+	 */
+	public void findIn(Geometry.Region region, Collection<? super E> out);
+
+	/**
+	 * Finds the k points closest to the location
+	 * @return	the k nearest points (or all of them, if there are fewer), nearest first
+	 */
+	public List<E> kNearest(double x, double y, int k);
+}
@@ -0,0 +1,240 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Streams points from a file into a sink in batches, for loading datasets far too big to click in.
+ * Two formats: CSV (or any text with the x and y as the first two numbers on each line, separated by commas
+ * or whitespace; lines that don't start with a number, such as a header or # comments, are skipped),
+ * and packed binary (x,y pairs of big-endian doubles, as DataOutputStream or a default ByteBuffer writes them).
+ * The file is read through a FileChannel into one reused buffer, and numbers are parsed straight from its bytes,
+ * so there's no per-line String (or any per-point object) along the way. Numbers with up to 15 or so significant
+ * digits are converted exactly by hand; longer ones (e.g., doubles printed at full precision) are handed to
+ * Double.parseDouble, which is correct but several times slower.
+ * Keeps its buffers between loads, so reuse one loader (from one thread at a time).
+ */
+public class PointLoader {
+	/**
+	 * Where the points go, a batch at a time
+	 */
+	public interface Sink {
+		/**
+		 * Takes points (xs[i],ys[i]) for i in [0,n); the arrays are reused for the next batch, so copy anything to keep
+		 */
+		void accept(double[] xs, double[] ys, int n);
+	}
+
+	private static final int BUFFER_SIZE = 1 << 20;		// bytes read at a time (and longest allowed line)
+	private static final double[] POWERS = {			// exactly representable powers of ten
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+		1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+	};
+
+	private final ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+	private final byte[] bytes = buf.array();	// buf's contents, for parsing without a call per byte
+	private final double[] xs, ys;			// the batch being filled
+	private int batched;					// how many points are in the batch
+	private int pos;						// parsing position in the current line
+	private long points, nanos;				// how many points the last load read, and how long it took
+
+	public PointLoader() {
+		this(1 << 16);
+	}
+
+	/**
+	 * @param batchSize		how many points to hand the sink at a time
+	 */
+	public PointLoader(int batchSize) {
+		if (batchSize < 1) throw new IllegalArgumentException("batch size must be positive, not "+batchSize);
+		xs = new double[batchSize];
+		ys = new double[batchSize];
+	}
+
+	/**
+	 * Loads the file, as binary if its name ends in .bin and otherwise as CSV
+	 * @return	how many points were read
+	 */
+	public long load(Path file, Sink sink) throws IOException {
+		return file.toString().endsWith(".bin") ? loadBinary(file, sink) : loadCsv(file, sink);
+	}
+
+	/**
+	 * Loads a CSV (or whitespace-separated) file
+	 * @return	how many points were read
+	 */
+	public long loadCsv(Path file, Sink sink) throws IOException {
+		long start = System.nanoTime();
+		points = 0;
+		batched = 0;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			buf.clear();
+			boolean eof = false;
+			while (!eof) {
+				eof = channel.read(buf) < 0;
+				buf.flip();
+				// Parse the complete lines, leaving any partial one at the end for the next read
+				int end = buf.limit();
+				if (!eof) {
+					while (end > buf.position() && bytes[end - 1] != '\n') end--;
+					if (end == buf.position() && buf.limit() == buf.capacity()) {
+						throw new IOException(file+" has a line over "+BUFFER_SIZE+" bytes, near point "+(points + batched));
+					}
+				}
+				int lineStart = buf.position();
+				for (int i = lineStart; i < end; i++) {
+					if (bytes[i] == '\n') {
+						parseLine(lineStart, i, sink);
+						lineStart = i + 1;
+					}
+				}
+				if (lineStart < end) parseLine(lineStart, end, sink);		// last line, without a newline
+				buf.position(end);
+				buf.compact();
+			}
+		}
+		flush(sink);
+		nanos = System.nanoTime() - start;
+		return points;
+	}
+
+	/**
+	 * Loads a packed binary file of x,y double pairs
+	 * @return	how many points were read
+	 */
+	public long loadBinary(Path file, Sink sink) throws IOException {
+		long start = System.nanoTime();
+		points = 0;
+		batched = 0;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			if (channel.size() % 16 != 0) throw new IOException(file+" isn't whole x,y pairs ("+channel.size()+" bytes)");
+			buf.clear();
+			while (channel.read(buf) >= 0) {
+				buf.flip();
+				while (buf.remaining() >= 16) {
+					xs[batched] = buf.getDouble();
+					ys[batched] = buf.getDouble();
+					if (++batched == xs.length) flush(sink);
+				}
+				buf.compact();
+			}
+		}
+		flush(sink);
+		nanos = System.nanoTime() - start;
+		return points;
+	}
+
+	/**
+	 * How many points the last load read
+	 */
+	public long getPoints() {
+		return points;
+	}
+
+	/**
+	 * How long the last load took, in nanoseconds (including the sink's time)
+	 */
+	public long getNanos() {
+		return nanos;
+	}
+
+	/**
+	 * The last load's throughput
+	 */
+	public double getPointsPerSecond() {
+		return nanos == 0 ? 0 : points * 1e9 / nanos;
+	}
+
+	public String toString() {
+		return String.format("%,d points in %.1f ms (%,.0f points/sec)", points, nanos / 1e6, getPointsPerSecond());
+	}
+
+	// Parse the x and y at the start of the line in buf[from,to) into the batch, unless it isn't a data line
+	private void parseLine(int from, int to, Sink sink) throws IOException {
+		pos = from;
+		skipSeparators(to);
+		if (pos == to || !startsNumber(bytes[pos])) return;
+		double x = parseNumber(to);
+		skipSeparators(to);
+		if (pos == to || !startsNumber(bytes[pos])) throw new IOException("no y value after x = "+x+", near point "+(points + batched));
+		double y = parseNumber(to);
+		xs[batched] = x;
+		ys[batched] = y;
+		if (++batched == xs.length) flush(sink);
+	}
+
+	private void skipSeparators(int to) {
+		while (pos < to) {
+			byte b = bytes[pos];
+			if (b != ',' && b != ' ' && b != '\t' && b != ';' && b != '\r') break;
+			pos++;
+		}
+	}
+
+	private static boolean startsNumber(byte b) {
+		return (b >= '0' && b <= '9') || b == '-' || b == '+' || b == '.';
+	}
+
+	// Parse a decimal number starting at pos, leaving pos just after it
+	private double parseNumber(int to) throws IOException {
+		int start = pos;
+		boolean negative = false;
+		byte b = bytes[pos];
+		if (b == '-' || b == '+') {
+			negative = b == '-';
+			pos++;
+		}
+		long mantissa = 0;
+		int digits = 0, exponent = 0;
+		boolean dot = false, anyDigits = false;
+		for (; pos < to; pos++) {
+			b = bytes[pos];
+			if (b >= '0' && b <= '9') {
+				anyDigits = true;
+				if (digits < 18) {
+					mantissa = mantissa * 10 + (b - '0');
+					if (mantissa > 0) digits++;
+					if (dot) exponent--;
+				}
+				else if (!dot) {
+					exponent++;		// digits past what a long holds just scale it
+				}
+			}
+			else if (b == '.' && !dot) dot = true;
+			else break;
+		}
+		if (pos < to && (b == 'e' || b == 'E')) {
+			pos++;
+			boolean negativeExp = false;
+			if (pos < to && (bytes[pos] == '-' || bytes[pos] == '+')) negativeExp = bytes[pos++] == '-';
+			int e = 0;
+			while (pos < to && bytes[pos] >= '0' && bytes[pos] <= '9') {
+				if (e < 10000) e = e * 10 + (bytes[pos] - '0');
+				pos++;
+			}
+			exponent += negativeExp ? -e : e;
+		}
+		if (!anyDigits) {
+			throw new IOException("bad number near point "+(points + batched));
+		}
+		double value;
+		if (mantissa < (1L << 53) && Math.abs(exponent) < POWERS.length) {
+			// Both the mantissa and the power of ten are exact, so one multiply or divide rounds correctly
+			value = exponent < 0 ? mantissa / POWERS[-exponent] : mantissa * POWERS[exponent];
+		}
+		else {
+			// Rare: too many significant digits, or a huge exponent, so let the library round it
+			value = Math.abs(Double.parseDouble(new String(bytes, start, pos - start, StandardCharsets.US_ASCII)));
+		}
+		return negative ? -value : value;
+	}
+
+	private void flush(Sink sink) {
+		if (batched == 0) return;
+		sink.accept(xs, ys, batched);
+		points += batched;
+		batched = 0;
+	}
+}
@@ -1,5 +1,12 @@
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Consumer;
 
 
 /**
@@ -11,16 +18,107 @@ import java.util.List;
  * @author CBK, Fall 2016, generic with Point2D interface
  * 
  */
-public class PointQuadtree<E extends Point2D> {
+public class PointQuadtree<E extends Point2D> implements PointIndex<E> {
 	private E point;							// the point anchoring this node
-	private int x1, y1;							// upper-left corner of the region
-	private int x2, y2;							// bottom-right corner of the region
+	private double x1, y1;						// upper-left corner of the region
+	private double x2, y2;						// bottom-right corner of the region
 	private PointQuadtree<E> c1, c2, c3, c4;	// children
+	private int size = 1;						// number of points here and in descendants
+	private double rebalance = 0;				// at the root, the c in the depth limit c*log2(size), or 0 for none
+
+	/**
+	 * The shape of a tree at some moment: how deep its nodes are, and how evenly its points are split
+	 */
+	public static class Shape {
+		private int size;					// number of nodes
+		private int[] depths = new int[16];	// depths[d] is how many nodes are d below the root
+		private int maxDepth;				// deepest node
+		private long totalDepth;			// sum of the nodes' depths
+		private int emptyChildren;			// child slots, over all nodes, with no child
+		private double heaviestSum;			// over internal nodes, sum of the fraction of descendants in the biggest quadrant
+		private int internal;				// number of nodes with children
+		private int[] quadrantSizes = new int[4];	// points in each of the root's quadrants
+
+		private Shape(PointQuadtree<?> root) {
+			for (int q = 1; q <= 4; q++) {
+				if (root.hasChild(q)) quadrantSizes[q-1] = root.getChild(q).size;
+			}
+			add(root, 0);
+		}
+
+		private void add(PointQuadtree<?> t, int depth) {
+			size++;
+			if (depth == depths.length) depths = Arrays.copyOf(depths, 2 * depths.length);
+			depths[depth]++;
+			maxDepth = Math.max(maxDepth, depth);
+			totalDepth += depth;
+			int heaviest = 0;
+			for (int q = 1; q <= 4; q++) {
+				PointQuadtree<?> c = t.getChild(q);
+				if (c == null) emptyChildren++;
+				else {
+					heaviest = Math.max(heaviest, c.size);
+					add(c, depth + 1);
+				}
+			}
+			if (t.size > 1) {
+				internal++;
+				heaviestSum += (double)heaviest / (t.size - 1);
+			}
+		}
+
+		public int size() {
+			return size;
+		}
+
+		/**
+		 * Returns how many nodes there are at each depth (index 0 for the root), through the max depth
+		 */
+		public int[] getDepthHistogram() {
+			return Arrays.copyOf(depths, maxDepth + 1);
+		}
+
+		public int getMaxDepth() {
+			return maxDepth;
+		}
+
+		public double getAverageDepth() {
+			return (double)totalDepth / size;
+		}
+
+		/**
+		 * Returns the fraction of child slots that are empty (at least 3/4 in any point quadtree, since n nodes have 4n slots and n-1 children)
+		 */
+		public double getEmptyChildRatio() {
+			return (double)emptyChildren / (4.0 * size);
+		}
+
+		/**
+		 * Returns how many points are in each of the root's quadrants, 1-4 at indices 0-3
+		 */
+		public int[] getQuadrantSizes() {
+			return quadrantSizes.clone();
+		}
+
+		/**
+		 * Returns how lopsided the nodes are: the average, over nodes with children, of the fraction of their
+		 * descendants in their biggest quadrant; 1/4 would be perfectly even, and 1 is a linked list
+		 */
+		public double getImbalance() {
+			return internal == 0 ? 0 : heaviestSum / internal;
+		}
+
+		public String toString() {
+			return String.format("%d nodes, depth avg %.2f max %d (log2 n = %.1f), %.1f%% empty children, imbalance %.2f, quadrants %s, depths %s",
+					size, getAverageDepth(), maxDepth, Math.log(size) / Math.log(2), 100 * getEmptyChildRatio(), getImbalance(),
+					Arrays.toString(quadrantSizes), Arrays.toString(getDepthHistogram()));
+		}
+	}
 
 	/**
 	 * Initializes a leaf quadtree, holding the point in the rectangle
 	 */
-	public PointQuadtree(E point, int x1, int y1, int x2, int y2) {
+	public PointQuadtree(E point, double x1, double y1, double x2, double y2) {
 		this.point = point;
 		this.x1 = x1; this.y1 = y1; this.x2 = x2; this.y2 = y2;
 	}
@@ -31,19 +129,23 @@ public class PointQuadtree<E extends Point2D> {
 		return point;
 	}
 
-	public int getX1() {
+	// The region's corners are doubles (they used to be ints): each child's region is bounded by its parent's exact
+	// anchor coordinates, and truncating those let a point fall just outside its own node's rectangle,
+	// where findInCircle's rectangle test could miss it
+	
+	public double getX1() {
 		return x1;
 	}
 
-	public int getY1() {
+	public double getY1() {
 		return y1;
 	}
 
-	public int getX2() {
+	public double getX2() {
 		return x2;
 	}
 
-	public int getY2() {
+	public double getY2() {
 		return y2;
 	}
 
@@ -70,34 +172,109 @@ public class PointQuadtree<E extends Point2D> {
 				(quadrant==4 && c4!=null);
 	}
 
+	/**
+	 * Builds a balanced quadtree holding all the points in the rectangle, in one pass.
+	 * Each node is anchored at the median of its points, alternating between x and y by level,
+	 * so the depth stays logarithmic no matter what order the points come in.
+	 * Points level with an anchor (on its vertical or horizontal line) are shared out between the quadrants on
+	 * either side, so that holds even with many copies of the same coordinate, or the same point.
+	 * @param points	the points to hold
+	 * @return			the root of the tree, or null if there are no points
+	 */
+	public static <E extends Point2D> PointQuadtree<E> build(Collection<E> points, double x1, double y1, double x2, double y2) {
+		Object[] pts = points.toArray();
+		return build(pts, new Object[pts.length], 0, pts.length, x1, y1, x2, y2, true);
+	}
+
+	/**
+	 * Builds the same balanced quadtree as build(points, x1, y1, x2, y2), but in parallel:
+	 * once a node's points have been split into quadrants, the four subtrees are built as separate fork-join tasks
+	 * (down to subtrees of a few thousand points, which are built sequentially).
+	 * @param points	the points to hold
+	 * @param pool		where to run the tasks
+	 * @return			the root of the tree, or null if there are no points
+	 */
+	public static <E extends Point2D> PointQuadtree<E> build(Collection<E> points, double x1, double y1, double x2, double y2,
+			ForkJoinPool pool) {
+		Object[] pts = points.toArray();
+		return pool.invoke(new BuildTask<E>(pts, new Object[pts.length], 0, pts.length, x1, y1, x2, y2, true));
+	}
+
 	/**
 	 * Inserts the point into the tree
+	 * (rebuilding a subtree that has grown too deep, if setRebalance has been called on this root)
 	 */
 	public void insert(E p2) {
 		// TODO: YOUR CODE HERE
-		for (int i = 1; i <= 4; i ++) {
-			if (isWithinBounds(i, p2)) {
-				if (hasChild(i)) {
-					getChild(i).insert(p2);
-				}
-				else {
-					setQuadrant(i, makeBoundedPoint(i, p2));
-				}
-			}
-		}
+		insert(p2, rebalance);
+	}
+
+	/**
+	 * Turns on automatic rebalancing, scapegoat-style: whenever an insertion lands deeper than c*log2(size)
+	 * below some node, the lowest such node's subtree is rebuilt balanced, in place.
+	 * That keeps the tree's depth O(log n) whatever order the points arrive in, for an amortized O(log n) per insert.
+	 * Call it on the root (which is what insert, remove, and update return); it applies to inserts through there.
+	 * @param c		how much deeper than perfectly balanced to allow (e.g., 2), at least 1; or 0 to turn it off
+	 */
+	public void setRebalance(double c) {
+		if (c != 0 && !(c >= 1)) throw new IllegalArgumentException("rebalance factor must be 0 or at least 1, not "+c);
+		rebalance = c;
+	}
+
+	/**
+	 * Rebuilds this subtree balanced, in place (keeping this node, so parents and callers' references stay valid)
+	 */
+	public void rebuild() {
+		if (size == 1) return;
+		PointQuadtree<E> balanced = build(allPoints(), x1, y1, x2, y2);
+		point = balanced.point;
+		c1 = balanced.c1; c2 = balanced.c2; c3 = balanced.c3; c4 = balanced.c4;
+	}
+
+	/**
+	 * Describes the shape of the tree, e.g., to see how skewed the insertion order has left it
+	 */
+	public Shape shape() {
+		return new Shape(this);
 	}
 	
+	/**
+	 * Removes the point from the tree (no effect if it isn't there).
+	 * Removing a leaf just unlinks it; removing an anchor promotes its largest child's subtree, intact, to take its
+	 * place (widening the regions along the way), and re-inserts the other children's points into that.
+	 * @param p2	the point to remove, at its current position
+	 * @return		the resulting tree -- this one, a rebuilt replacement, or null if the tree is now empty
+	 */
+	public PointQuadtree<E> remove(E p2) {
+		PointQuadtree<E> tree = remove(p2, p2.getX(), p2.getY(), rebalance);
+		if (tree != null) tree.rebalance = rebalance;
+		return tree;
+	}
+
+	/**
+	 * Relocates a point that has moved, without rebuilding the rest of the tree.
+	 * If the point is a leaf whose region still holds its new position, nothing needs to change;
+	 * otherwise it is removed from where it used to be and inserted where it is now.
+	 * (A point that isn't in the tree is simply inserted.)
+	 * @param p2	the point, already at its new position
+	 * @param oldX	x coordinate at which it was inserted (or last updated)
+	 * @param oldY	y coordinate at which it was inserted (or last updated)
+	 * @return		the resulting tree -- this one, or a replacement if the root's anchor moved
+	 */
+	public PointQuadtree<E> update(E p2, double oldX, double oldY) {
+		if (stillFits(p2, oldX, oldY)) return this;
+		PointQuadtree<E> tree = remove(p2, oldX, oldY, rebalance);
+		if (tree == null) tree = new PointQuadtree<E>(p2, x1, y1, x2, y2);
+		else tree.insert(p2, rebalance);
+		tree.rebalance = rebalance;
+		return tree;
+	}
+
 	/**
 	 * Finds the number of points in the quadtree (including its descendants)
 	 */
 	public int size() {
 		// TODO: YOUR CODE HERE
-		int size = 1;
-		for (int i = 1; i <= 4; i ++) {
-			if (hasChild(i)) {
-				size += getChild(i).size();
-			}
-		}
 		return size;
 	}
 	
@@ -107,12 +284,7 @@ public class PointQuadtree<E extends Point2D> {
 	public List<E> allPoints() {
 		// TODO: YOUR CODE HERE
 		List<E> myChildren = new ArrayList<E>();
-		myChildren.add(point);
-		for (int i = 1; i <= 4; i ++) {
-			if (hasChild(i)) {
-				myChildren.addAll(getChild(i).allPoints());
-			}
-		}
+		collect(myChildren);
 		return myChildren;
 	}
 
@@ -125,22 +297,212 @@ public class PointQuadtree<E extends Point2D> {
 	 */
 	public List<E> findInCircle(double cx, double cy, double cr) {
 		// TODO: YOUR CODE HERE
-		List<E> myHits = new ArrayList<E>();   // ArrayList works but List doesn't
-		// If the circle intersects the rectangle
-		if (Geometry.circleIntersectsRectangle(cx, cy, cr, x1, y1, x2, y2)) {
-			// If the tree's point is in the circle, then the blob is a "hit"
-			if (Geometry.pointInCircle(point.getX(), point.getY(), cx, cy, cr)) {
-				myHits.add(point);
+		List<E> myHits = new ArrayList<E>();
+		findInCircle(cx, cy, cr, myHits);
+		return myHits;
+	}
+
+	/**
+	 * Uses the quadtree to find all points within the circle, adding them to the caller's collection
+	 * (so no intermediate lists are built along the way).
+	 * Once a node's whole rectangle is inside the circle, its entire subtree is added without any more tests.
+	 * @param cx	circle center x
+	 * @param cy  	circle center y
+	 * @param cr  	circle radius
+	 * @param out	where to add the points in the circle (and the qt's rectangle)
+	 */
+	public void findInCircle(double cx, double cy, double cr, Collection<? super E> out) {
+		QuadtreeMetrics.Probe probe = QuadtreeMetrics.start();
+		try {
+			findInCircle(cx, cy, cr, out, 0, probe);
+		}
+		finally {
+			QuadtreeMetrics.finish(probe);
+		}
+	}
+
+	/**
+	 * Uses the quadtree to find all points within the circle, handing each one to the visitor
+	 * @param cx		circle center x
+	 * @param cy  		circle center y
+	 * @param cr  		circle radius
+	 * @param visitor	called with each point in the circle (and the qt's rectangle)
+	 */
+	public void findInCircle(double cx, double cy, double cr, Consumer<? super E> visitor) {
+		QuadtreeMetrics.Probe probe = QuadtreeMetrics.start();
+		try {
+			findInCircle(cx, cy, cr, visitor, 0, probe);
+		}
+		finally {
+			QuadtreeMetrics.finish(probe);
+		}
+	}
+
+	/**
+	 * Counts the points within the circle, without building a list of them
+	 * @param cx	circle center x
+	 * @param cy  	circle center y
+	 * @param cr  	circle radius
+	 * @return		how many points are in the circle (and the qt's rectangle)
+	 */
+	public int countInCircle(double cx, double cy, double cr) {
+		return countInCircle(cx, cy, cr, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Counts the points within the circle, stopping early once the limit is reached
+	 * (e.g., a limit of 2 answers "is anything besides the query point itself in here?").
+	 * A subtree whose whole rectangle is inside the circle is counted from its cached size, in O(1).
+	 * @param cx	circle center x
+	 * @param cy  	circle center y
+	 * @param cr  	circle radius
+	 * @param limit	stop searching after this many hits
+	 * @return		how many points are in the circle (and the qt's rectangle), at most limit
+	 */
+	public int countInCircle(double cx, double cy, double cr, int limit) {
+		QuadtreeMetrics.Probe probe = QuadtreeMetrics.start();
+		try {
+			int count = countInCircle(cx, cy, cr, limit, 0, probe);
+			probe.hits += count;
+			return count;
+		}
+		finally {
+			QuadtreeMetrics.finish(probe);
+		}
+	}
+	
+	/**
+	 * Answers a whole batch of circle queries in one traversal: the batch is pushed down the tree together,
+	 * keeping at each node just the queries whose circles reach its rectangle, so each node is visited once per batch
+	 * rather than once per query. The queries are first put in Morton (Z-curve) order over the tree's rectangle,
+	 * so that nearby circles, which mostly go down the same paths, are handled together.
+	 * In QuadtreeMetrics the batch counts as n queries sharing its work and time (so per-query numbers are averages),
+	 * and lastQuery() has the whole batch's numbers.
+	 * @param cx	circle center x coordinates, one per query
+	 * @param cy	circle center y coordinates
+	 * @param cr	circle radii
+	 * @param sink	called with (i, point) for each point in circle i (and the qt's rectangle)
+	 */
+	public void findInCircles(double[] cx, double[] cy, double[] cr, ResultSink<? super E> sink) {
+		int n = cx.length;
+		if (cy.length != n || cr.length != n) throw new IllegalArgumentException("need the same number of x's, y's, and r's");
+
+		QuadtreeMetrics.Probe probe = QuadtreeMetrics.start();
+		try {
+			// Sort the query indices by Morton code, carried in the high bits alongside the index in the low bits
+			long[] keyed = new long[n];
+			for (int i = 0; i < n; i++) {
+				keyed[i] = (morton(cx[i], cy[i]) << 32) | i;
+			}
+			Arrays.sort(keyed);
+			int[] queries = new int[n];
+			for (int i = 0; i < n; i++) {
+				queries[i] = (int)keyed[i];
+			}
+			findInCircles(queries, 0, n, cx, cy, cr, sink, 0, probe);
+		}
+		finally {
+			QuadtreeMetrics.finish(probe, n);
+		}
+	}
+
+	/**
+	 * Uses the quadtree to find all points within the region (a circle, rectangle, convex polygon, ...)
+	 * @param region	where to look
+	 * @return			the points in the region (and the qt's rectangle)
+	 */
+	public List<E> findIn(Geometry.Region region) {
+		List<E> hits = new ArrayList<E>();
+		findIn(region, hits);
+		return hits;
+	}
+
+	/**
+	 * Uses the quadtree to find all points within the region, adding them to the caller's collection.
+	 * A subtree whose whole rectangle is inside the region is added wholesale, without testing its points
+	 * (which assumes, as everywhere, that the points lie within the tree's rectangle).
+	 * @param region	where to look
+	 * @param out		where to add the points in the region (and the qt's rectangle)
+	 */
+	public void findIn(Geometry.Region region, Collection<? super E> out) {
+		QuadtreeMetrics.Probe probe = QuadtreeMetrics.start();
+		try {
+			findIn(region, out, 0, probe);
+		}
+		finally {
+			QuadtreeMetrics.finish(probe);
+		}
+	}
+
+	/**
+	 * Finds the point closest to the location
+	 * @param x		location x
+	 * @param y		location y
+	 * @return		the nearest point (ties broken arbitrarily)
+	 */
+	public E nearest(double x, double y) {
+		return kNearest(x, y, 1).get(0);
+	}
+
+	/**
+	 * Finds the k points closest to the location, by best-first branch-and-bound:
+	 * nodes are explored in order of how close their rectangles come to the location,
+	 * stopping once the next rectangle is farther away than the k-th best point found so far.
+	 * @param x		location x
+	 * @param y		location y
+	 * @param k		how many points to find
+	 * @return		the k nearest points (or all of them, if there are fewer), nearest first
+	 */
+	public List<E> kNearest(double x, double y, int k) {
+		List<E> result = new ArrayList<E>();
+		if (k <= 0) return result;
+		// Nodes to explore, closest rectangle first; best points so far, farthest first (so it's easy to evict)
+		PriorityQueue<Candidate<PointQuadtree<E>>> frontier = new PriorityQueue<Candidate<PointQuadtree<E>>>();
+		PriorityQueue<Candidate<E>> best = new PriorityQueue<Candidate<E>>(k + 1, Collections.reverseOrder());
+		frontier.add(new Candidate<PointQuadtree<E>>(this, Geometry.pointRectangleDistanceSquared(x, y, x1, y1, x2, y2)));
+		while (!frontier.isEmpty()) {
+			Candidate<PointQuadtree<E>> next = frontier.poll();
+			if (best.size() == k && next.dist2 > best.peek().dist2) break;
+			PointQuadtree<E> node = next.item;
+			double dx = node.point.getX() - x, dy = node.point.getY() - y;
+			double d2 = dx*dx + dy*dy;
+			if (best.size() < k) {
+				best.add(new Candidate<E>(node.point, d2));
+			}
+			else if (d2 < best.peek().dist2) {
+				best.poll();
+				best.add(new Candidate<E>(node.point, d2));
 			}
-			//For each quadrant with a child
-			for (int i = 1; i <= 4; i ++) {
-				if (hasChild(i)) {
-					//Recurse with that child
-					myHits.addAll(getChild(i).findInCircle(cx, cy, cr));
+			for (int i = 1; i <= 4; i++) {
+				PointQuadtree<E> c = node.getChild(i);
+				if (c == null) continue;
+				double cd2 = Geometry.pointRectangleDistanceSquared(x, y, c.x1, c.y1, c.x2, c.y2);
+				if (best.size() < k || cd2 <= best.peek().dist2) {
+					frontier.add(new Candidate<PointQuadtree<E>>(c, cd2));
 				}
 			}
 		}
-		return myHits;
+		while (!best.isEmpty()) result.add(best.poll().item);
+		Collections.reverse(result);
+		return result;
+	}
+
+	/**
+	 * A node or point, with its squared distance from a query location, ordered by that distance
+	 * (also used by the other indexes' nearest-neighbor searches)
+	 */
+	static class Candidate<T> implements Comparable<Candidate<T>> {
+		final T item;
+		final double dist2;
+
+		Candidate(T item, double dist2) {
+			this.item = item;
+			this.dist2 = dist2;
+		}
+
+		public int compareTo(Candidate<T> other) {
+			return Double.compare(dist2, other.dist2);
+		}
 	}
 	
 	// TODO: YOUR CODE HERE for any helper methods
@@ -164,35 +526,449 @@ public class PointQuadtree<E extends Point2D> {
 		}
 	}
 	
-	// Check whether a point fits in a quadrant
-	private boolean isWithinBounds(int quadrant, E p2) {
-		if (
-				(quadrant == 1 && (int)p2.getX() <= point.getX() && (int)p2.getY() <= point.getY()) ||
-				(quadrant == 2 && (int)p2.getX() >= point.getX() && (int)p2.getY() <= point.getY()) ||
-				(quadrant == 3 && (int)p2.getX() <= point.getX() && (int)p2.getY() >= point.getY()) ||
-				(quadrant == 4 && (int)p2.getX() >= point.getX() && (int)p2.getY() >= point.getY())
-				) {
-			return true;
-		}
-		return false;
+	// Answer queries[from,to) in this subtree; each node only reorders its own range, so the set in it stays the same
+	private void findInCircles(int[] queries, int from, int to, double[] cx, double[] cy, double[] cr,
+			ResultSink<? super E> sink, int depth, QuadtreeMetrics.Probe probe) {
+		probe.visit(depth);
+		probe.rectangleTests += to - from;
+		// Keep just the queries that reach this rectangle, moved to the front: those covering it in [from,covered),
+		// and those that only overlap it in [covered,reaching)
+		int covered = from, reaching = from;
+		for (int k = from; k < to; k++) {
+			int q = queries[k];
+			if (!Geometry.circleIntersectsRectangle(cx[q], cy[q], cr[q], x1, y1, x2, y2)) continue;
+			queries[k] = queries[reaching];
+			queries[reaching++] = q;
+			if (Geometry.rectangleInsideCircle(x1, y1, x2, y2, cx[q], cy[q], cr[q])) {
+				queries[reaching-1] = queries[covered];
+				queries[covered++] = q;
+			}
+		}
+		// Covering queries get the whole subtree
+		for (int k = from; k < covered; k++) {
+			emitAll(queries[k], sink);
+		}
+		probe.hits += (long)(covered - from) * size;
+		if (covered == reaching) return;
+		// The rest test this point, and continue on down
+		double px = point.getX(), py = point.getY();
+		probe.pointTests += reaching - covered;
+		for (int k = covered; k < reaching; k++) {
+			int q = queries[k];
+			if (Geometry.pointInCircle(px, py, cx[q], cy[q], cr[q])) {
+				sink.accept(q, point);
+				probe.hits++;
+			}
+		}
+		if (c1 != null) c1.findInCircles(queries, covered, reaching, cx, cy, cr, sink, depth+1, probe);
+		if (c2 != null) c2.findInCircles(queries, covered, reaching, cx, cy, cr, sink, depth+1, probe);
+		if (c3 != null) c3.findInCircles(queries, covered, reaching, cx, cy, cr, sink, depth+1, probe);
+		if (c4 != null) c4.findInCircles(queries, covered, reaching, cx, cy, cr, sink, depth+1, probe);
+	}
+
+	// Hand this node's point and all its descendants' to the sink, as hits for the query
+	private void emitAll(int query, ResultSink<? super E> sink) {
+		sink.accept(query, point);
+		if (c1 != null) c1.emitAll(query, sink);
+		if (c2 != null) c2.emitAll(query, sink);
+		if (c3 != null) c3.emitAll(query, sink);
+		if (c4 != null) c4.emitAll(query, sink);
+	}
+
+	// Morton code of a position: 16 bits of x and y each, relative to the rectangle, interleaved
+	private long morton(double px, double py) {
+		return interleave(scale(px, x1, x2)) | (interleave(scale(py, y1, y2)) << 1);
+	}
+
+	// Scale v from [lo,hi] to a 16-bit grid coordinate, clamping
+	private static long scale(double v, double lo, double hi) {
+		if (!(hi > lo)) return 0;
+		long s = (long)((v - lo) / (hi - lo) * 65536);
+		return s < 0 ? 0 : s > 65535 ? 65535 : s;
+	}
+
+	// Spread the low 16 bits of v out to the even bits
+	private static long interleave(long v) {
+		v = (v | (v << 8)) & 0x00FF00FFL;
+		v = (v | (v << 4)) & 0x0F0F0F0FL;
+		v = (v | (v << 2)) & 0x33333333L;
+		v = (v | (v << 1)) & 0x55555555L;
+		return v;
+	}
+
+	// The recursive parts of the queries, noting each node visited (at its depth below the query's root), each test,
+	// and each hit in the probe
+
+	private void findInCircle(double cx, double cy, double cr, Collection<? super E> out, int depth, QuadtreeMetrics.Probe probe) {
+		probe.visit(depth);
+		probe.rectangleTests++;
+		// If the circle intersects the rectangle
+		if (Geometry.circleIntersectsRectangle(cx, cy, cr, x1, y1, x2, y2)) {
+			// If it covers the rectangle, everything here is a hit
+			if (Geometry.rectangleInsideCircle(x1, y1, x2, y2, cx, cy, cr)) {
+				collect(out);
+				probe.hits += size;
+				return;
+			}
+			// If the tree's point is in the circle, then the blob is a "hit"
+			probe.pointTests++;
+			if (Geometry.pointInCircle(point.getX(), point.getY(), cx, cy, cr)) {
+				out.add(point);
+				probe.hits++;
+			}
+			// Recurse with each child
+			if (c1 != null) c1.findInCircle(cx, cy, cr, out, depth+1, probe);
+			if (c2 != null) c2.findInCircle(cx, cy, cr, out, depth+1, probe);
+			if (c3 != null) c3.findInCircle(cx, cy, cr, out, depth+1, probe);
+			if (c4 != null) c4.findInCircle(cx, cy, cr, out, depth+1, probe);
+		}
+	}
+
+	private void findInCircle(double cx, double cy, double cr, Consumer<? super E> visitor, int depth, QuadtreeMetrics.Probe probe) {
+		probe.visit(depth);
+		probe.rectangleTests++;
+		if (Geometry.circleIntersectsRectangle(cx, cy, cr, x1, y1, x2, y2)) {
+			if (Geometry.rectangleInsideCircle(x1, y1, x2, y2, cx, cy, cr)) {
+				visitAll(visitor);
+				probe.hits += size;
+				return;
+			}
+			probe.pointTests++;
+			if (Geometry.pointInCircle(point.getX(), point.getY(), cx, cy, cr)) {
+				visitor.accept(point);
+				probe.hits++;
+			}
+			if (c1 != null) c1.findInCircle(cx, cy, cr, visitor, depth+1, probe);
+			if (c2 != null) c2.findInCircle(cx, cy, cr, visitor, depth+1, probe);
+			if (c3 != null) c3.findInCircle(cx, cy, cr, visitor, depth+1, probe);
+			if (c4 != null) c4.findInCircle(cx, cy, cr, visitor, depth+1, probe);
+		}
+	}
+
+	private int countInCircle(double cx, double cy, double cr, int limit, int depth, QuadtreeMetrics.Probe probe) {
+		int count = 0;
+		probe.visit(depth);
+		probe.rectangleTests++;
+		if (limit > 0 && Geometry.circleIntersectsRectangle(cx, cy, cr, x1, y1, x2, y2)) {
+			if (Geometry.rectangleInsideCircle(x1, y1, x2, y2, cx, cy, cr)) {
+				return Math.min(size, limit);
+			}
+			probe.pointTests++;
+			if (Geometry.pointInCircle(point.getX(), point.getY(), cx, cy, cr)) {
+				count++;
+			}
+			if (c1 != null && count < limit) count += c1.countInCircle(cx, cy, cr, limit - count, depth+1, probe);
+			if (c2 != null && count < limit) count += c2.countInCircle(cx, cy, cr, limit - count, depth+1, probe);
+			if (c3 != null && count < limit) count += c3.countInCircle(cx, cy, cr, limit - count, depth+1, probe);
+			if (c4 != null && count < limit) count += c4.countInCircle(cx, cy, cr, limit - count, depth+1, probe);
+		}
+		return count;
+	}
+
+	private void findIn(Geometry.Region region, Collection<? super E> out, int depth, QuadtreeMetrics.Probe probe) {
+		probe.visit(depth);
+		probe.rectangleTests++;
+		if (region.containsRect(x1, y1, x2, y2)) {
+			collect(out);
+			probe.hits += size;
+		}
+		else if (region.intersectsRect(x1, y1, x2, y2)) {
+			probe.pointTests++;
+			if (region.containsPoint(point.getX(), point.getY())) {
+				out.add(point);
+				probe.hits++;
+			}
+			if (c1 != null) c1.findIn(region, out, depth+1, probe);
+			if (c2 != null) c2.findIn(region, out, depth+1, probe);
+			if (c3 != null) c3.findIn(region, out, depth+1, probe);
+			if (c4 != null) c4.findIn(region, out, depth+1, probe);
+		}
+	}
+
+	// Insert p2 below here, returning how far below it ended up (-1 if a subtree on the way was rebuilt);
+	// with c > 0, rebuild here if that's deeper than c*log2(size)
+	private int insert(E p2, double c) {
+		size++;
+		int i = quadrantFor(p2.getX(), p2.getY());
+		int depth;
+		if (hasChild(i)) {
+			depth = getChild(i).insert(p2, c);
+			if (depth < 0) return -1;
+			depth++;
+		}
+		else {
+			setQuadrant(i, makeBoundedPoint(i, p2));
+			depth = 1;
+		}
+		if (c > 0 && depth > c * Math.log(size) / Math.log(2)) {
+			rebuild();
+			return -1;
+		}
+		return depth;
+	}
+
+	// Hand this node's point and all its descendants' to the visitor
+	private void visitAll(Consumer<? super E> visitor) {
+		visitor.accept(point);
+		if (c1 != null) c1.visitAll(visitor);
+		if (c2 != null) c2.visitAll(visitor);
+		if (c3 != null) c3.visitAll(visitor);
+		if (c4 != null) c4.visitAll(visitor);
+	}
+
+	// Add this node's point and all its descendants' to the collection
+	private void collect(Collection<? super E> out) {
+		out.add(point);
+		if (c1 != null) c1.collect(out);
+		if (c2 != null) c2.collect(out);
+		if (c3 != null) c3.collect(out);
+		if (c4 != null) c4.collect(out);
+	}
+
+	// Remove p2, found by following (px,py) down the tree (into each quadrant that could hold it, if it's on an
+	// anchor's line); returns what should replace this node. Orphans are re-inserted with rebalancing factor c.
+	private PointQuadtree<E> remove(E p2, double px, double py, double c) {
+		if (point == p2) {
+			// The largest child takes over this node's region, and the other children's points go into it
+			int largest = 0;
+			for (int i = 1; i <= 4; i++) {
+				if (hasChild(i) && (largest == 0 || sizeOf(i) > sizeOf(largest))) largest = i;
+			}
+			if (largest == 0) return null;
+			PointQuadtree<E> promoted = getChild(largest);
+			List<E> orphans = new ArrayList<E>(size - 1 - promoted.size);
+			for (int i = 1; i <= 4; i++) {
+				if (i != largest && hasChild(i)) getChild(i).collect(orphans);
+			}
+			promoted.setRegion(x1, y1, x2, y2);
+			for (E orphan : orphans) promoted.insert(orphan, c);
+			return promoted;
+		}
+		for (int i = 1; i <= 4; i++) {
+			if (hasChild(i) && inQuadrant(i, px, py)) {
+				PointQuadtree<E> child = getChild(i);
+				int before = child.size;
+				child = child.remove(p2, px, py, c);
+				setQuadrant(i, child);
+				int removed = before - (child == null ? 0 : child.size);
+				if (removed > 0) {
+					size -= removed;
+					break;
+				}
+			}
+		}
+		return this;
+	}
+
+	// Widen this subtree's region to the given one (which holds the old one), and so its descendants' regions
+	// that share an edge with it
+	private void setRegion(double nx1, double ny1, double nx2, double ny2) {
+		if (nx1 == x1 && ny1 == y1 && nx2 == x2 && ny2 == y2) return;
+		x1 = nx1; y1 = ny1; x2 = nx2; y2 = ny2;
+		double ax = point.getX(), ay = point.getY();
+		if (c1 != null) c1.setRegion(x1, y1, ax, ay);
+		if (c2 != null) c2.setRegion(ax, y1, x2, ay);
+		if (c3 != null) c3.setRegion(x1, ay, ax, y2);
+		if (c4 != null) c4.setRegion(ax, ay, x2, y2);
+	}
+
+	// Whether p2, inserted at (oldX,oldY), is a leaf whose region still holds its new position
+	private boolean stillFits(E p2, double oldX, double oldY) {
+		PointQuadtree<E> node = find(p2, oldX, oldY);
+		if (node == null || node.c1 != null || node.c2 != null || node.c3 != null || node.c4 != null) return false;
+		double px = p2.getX(), py = p2.getY();
+		return px >= node.x1 && px <= node.x2 && py >= node.y1 && py <= node.y2;
+	}
+
+	// Find the node anchored at p2, following (px,py) down the tree as remove does; null if it isn't there
+	private PointQuadtree<E> find(E p2, double px, double py) {
+		if (point == p2) return this;
+		for (int i = 1; i <= 4; i++) {
+			if (hasChild(i) && inQuadrant(i, px, py)) {
+				PointQuadtree<E> found = getChild(i).find(p2, px, py);
+				if (found != null) return found;
+			}
+		}
+		return null;
+	}
+
+	// Find the quadrant to insert a position into: the one it belongs in, or if it's on the anchor's lines
+	// (so could go in either of two quadrants, or any of four), whichever of those holds the fewest points so far
+	private int quadrantFor(double px, double py) {
+		if (px != point.getX() && py != point.getY()) return quadrantOf(px, py);
+		int best = 0;
+		for (int q = 1; q <= 4; q++) {
+			if (inQuadrant(q, px, py) && (best == 0 || sizeOf(q) < sizeOf(best))) best = q;
+		}
+		return best;
+	}
+
+	// Find the (single) quadrant a position belongs in; ties on the anchor's lines go to the lower-numbered quadrant
+	private int quadrantOf(double px, double py) {
+		return quadrant(px <= point.getX(), py <= point.getY());
+	}
+
+	// Whether quadrant q's region (including its edges, which are on the anchor's lines) holds the position
+	private boolean inQuadrant(int q, double px, double py) {
+		double ax = point.getX(), ay = point.getY();
+		boolean left = q == 1 || q == 3, top = q <= 2;
+		return (left ? px <= ax : px >= ax) && (top ? py <= ay : py >= ay);
+	}
+
+	// Number of points in quadrant q's subtree
+	private int sizeOf(int q) {
+		PointQuadtree<E> child = getChild(q);
+		return child == null ? 0 : child.size;
+	}
+
+	private static int quadrant(boolean left, boolean top) {
+		if (left && top) return 1;
+		if (top) return 2;
+		if (left) return 3;
+		return 4;
 	}
 	
 	// Make a new PointQuadtree with bounds appropriate to a numbered quadrant
 	private PointQuadtree<E> makeBoundedPoint(int quadrant, E p2) {
 		if (quadrant == 1) {
-			return new PointQuadtree(p2, x1, y1, (int)point.getX(), (int)point.getY());
+			return new PointQuadtree<E>(p2, x1, y1, point.getX(), point.getY());
 		}
 		else if (quadrant == 2) {
-			return new PointQuadtree(p2, (int)point.getX(), y1, x2, (int)point.getY());
+			return new PointQuadtree<E>(p2, point.getX(), y1, x2, point.getY());
 		}
 		else if (quadrant == 3) {
-			return new PointQuadtree(p2, x1, (int)point.getY(), (int)point.getX(), y2);
+			return new PointQuadtree<E>(p2, x1, point.getY(), point.getX(), y2);
 		}
 		else if (quadrant == 4) {
-			return new PointQuadtree(p2,(int)point.getX(), (int)point.getY(), x2, y2);
+			return new PointQuadtree<E>(p2, point.getX(), point.getY(), x2, y2);
 		}
 		else {
 			return null;
 		}
 	}
+
+	// Recursively build a subtree from pts[from,to), using scratch (same length as pts) for partitioning
+	private static <E extends Point2D> PointQuadtree<E> build(Object[] pts, Object[] scratch, int from, int to,
+			double x1, double y1, double x2, double y2, boolean byX) {
+		if (from >= to) return null;
+		int[] starts = new int[5], ends = new int[5];
+		PointQuadtree<E> tree = split(pts, scratch, from, to, x1, y1, x2, y2, byX, starts, ends);
+
+		// Recurse within each quadrant's bounds, splitting on the other axis
+		double ax = tree.point.getX(), ay = tree.point.getY();
+		tree.c1 = build(pts, scratch, starts[1], ends[1], x1, y1, ax, ay, !byX);
+		tree.c2 = build(pts, scratch, starts[2], ends[2], ax, y1, x2, ay, !byX);
+		tree.c3 = build(pts, scratch, starts[3], ends[3], x1, ay, ax, y2, !byX);
+		tree.c4 = build(pts, scratch, starts[4], ends[4], ax, ay, x2, y2, !byX);
+		tree.size = to - from;
+		return tree;
+	}
+
+	/**
+	 * Builds a subtree like build(pts, scratch, ...), forking the four quadrants' subtrees off as their own tasks.
+	 * They work on disjoint ranges of pts and scratch, so need no coordination beyond the join.
+	 */
+	private static class BuildTask<E extends Point2D> extends RecursiveTask<PointQuadtree<E>> {
+		private static final long serialVersionUID = 1L;
+		private static final int THRESHOLD = 1 << 13;	// subtrees smaller than this are built sequentially
+
+		private final Object[] pts, scratch;
+		private final int from, to;
+		private final double x1, y1, x2, y2;
+		private final boolean byX;
+
+		BuildTask(Object[] pts, Object[] scratch, int from, int to, double x1, double y1, double x2, double y2, boolean byX) {
+			this.pts = pts; this.scratch = scratch;
+			this.from = from; this.to = to;
+			this.x1 = x1; this.y1 = y1; this.x2 = x2; this.y2 = y2;
+			this.byX = byX;
+		}
+
+		@Override
+		protected PointQuadtree<E> compute() {
+			if (to - from < THRESHOLD) return build(pts, scratch, from, to, x1, y1, x2, y2, byX);
+			int[] starts = new int[5], ends = new int[5];
+			PointQuadtree<E> tree = split(pts, scratch, from, to, x1, y1, x2, y2, byX, starts, ends);
+
+			double ax = tree.point.getX(), ay = tree.point.getY();
+			BuildTask<E> t1 = new BuildTask<E>(pts, scratch, starts[1], ends[1], x1, y1, ax, ay, !byX);
+			BuildTask<E> t2 = new BuildTask<E>(pts, scratch, starts[2], ends[2], ax, y1, x2, ay, !byX);
+			BuildTask<E> t3 = new BuildTask<E>(pts, scratch, starts[3], ends[3], x1, ay, ax, y2, !byX);
+			BuildTask<E> t4 = new BuildTask<E>(pts, scratch, starts[4], ends[4], ax, ay, x2, y2, !byX);
+			invokeAll(t1, t2, t3, t4);
+			tree.c1 = t1.join();
+			tree.c2 = t2.join();
+			tree.c3 = t3.join();
+			tree.c4 = t4.join();
+			tree.size = to - from;
+			return tree;
+		}
+	}
+
+	/**
+	 * Makes a childless node for pts[from,to) (non-empty), anchored at the median, and partitions the rest by quadrant:
+	 * quadrant q's points end up in pts[starts[q],ends[q]).
+	 * Along the split axis, the points that selection leaves before the median go left (or up) and those after go right
+	 * (or down), so points level with the anchor are divided between the sides just as the rest are;
+	 * on the other axis, points level with the anchor alternate sides.
+	 * Either way each point is inside its quadrant's region (edges included), which is all the queries rely on.
+	 */
+	@SuppressWarnings("unchecked")
+	private static <E extends Point2D> PointQuadtree<E> split(Object[] pts, Object[] scratch, int from, int to,
+			double x1, double y1, double x2, double y2, boolean byX, int[] starts, int[] ends) {
+		// Anchor at the median, moved to the front of the range
+		int mid = (from + to) >>> 1;
+		select(pts, from, to, mid, byX);
+		E anchor = (E)pts[mid];
+		pts[mid] = pts[from];
+		pts[from] = anchor;
+		PointQuadtree<E> tree = new PointQuadtree<E>(anchor, x1, y1, x2, y2);
+
+		// Partition the rest by quadrant; pts[mid] is now the one that was at the front, which is before the median.
+		// The second pass has to make the same choices as the first, so restarts the alternation.
+		double other = coord(anchor, !byX);
+		int[] counts = new int[5];
+		boolean flip = false;
+		for (int i = from + 1; i < to; i++) {
+			double c = coord(pts[i], !byX);
+			boolean low = c < other || (c == other && (flip = !flip));
+			counts[byX ? quadrant(i <= mid, low) : quadrant(low, i <= mid)]++;
+		}
+		starts[1] = from + 1;
+		for (int q = 2; q <= 4; q++) {
+			starts[q] = starts[q-1] + counts[q-1];
+		}
+		System.arraycopy(starts, 1, ends, 1, 4);
+		flip = false;
+		for (int i = from + 1; i < to; i++) {
+			double c = coord(pts[i], !byX);
+			boolean low = c < other || (c == other && (flip = !flip));
+			scratch[ends[byX ? quadrant(i <= mid, low) : quadrant(low, i <= mid)]++] = pts[i];
+		}
+		System.arraycopy(scratch, from + 1, pts, from + 1, to - from - 1);
+		return tree;
+	}
+
+	// Rearrange pts[from,to) so that the k-th smallest (by x or y) is at index k, smaller ones before and larger after
+	private static void select(Object[] pts, int from, int to, int k, boolean byX) {
+		int l = from, r = to - 1;
+		while (l < r) {
+			double pivot = coord(pts[k], byX);
+			int i = l, j = r;
+			do {
+				while (coord(pts[i], byX) < pivot) i++;
+				while (pivot < coord(pts[j], byX)) j--;
+				if (i <= j) {
+					Object tmp = pts[i]; pts[i] = pts[j]; pts[j] = tmp;
+					i++; j--;
+				}
+			} while (i <= j);
+			if (j < k) l = i;
+			if (k < i) r = j;
+		}
+	}
+
+	private static double coord(Object p, boolean byX) {
+		return byX ? ((Point2D)p).getX() : ((Point2D)p).getY();
+	}
 }
@@ -0,0 +1,416 @@
+import java.lang.management.ManagementFactory;
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Instrumentation for quadtree queries and the collision loop.
+ *
+ * Each thread has its own Probe, which a query looks up once when it starts and then passes down its traversal,
+ * counting into it as it goes (so there's no sharing, and nothing to get wrong when several threads query at once).
+ * When a query finishes, its probe holds that query's numbers, readable with lastQuery() on the same thread.
+ *
+ * Totalling is off until setEnabled(true) (or over JMX), so by default a query costs just the probe lookup
+ * and the counting. Once on, each finished query is added into the totals: lock-free adders, and a latency
+ * histogram with logarithmic buckets (each power of two split into 8, so within 12.5%). Each thread's probe
+ * keeps its own histogram, which only that thread writes, and snapshots add them all up,
+ * so parallel queries don't contend on shared buckets. Once a thread has ended, its histogram is folded into
+ * a retired total and dropped (the next time a thread starts querying, or a snapshot is taken),
+ * so short-lived threads don't pile up histograms.
+ * The totals are readable as a Snapshot, or over JMX once register() is called.
+ *
+ * PointQuadtree's circle and region queries are recorded as queries, and its batches of circle queries
+ * as that many queries sharing the batch's work and time; nothing else is counted (the other PointIndex
+ * implementations aren't instrumented).
+ * CollisionSimulation records each tick's timings (while enabled).
+ */
+public class QuadtreeMetrics implements QuadtreeMetricsMBean {
+	/**
+	 * One thread's counts for its current (or last) query
+	 */
+	public static class Probe {
+		long nodes, rectangleTests, pointTests, hits;	// counted as the query goes
+		int maxDepth;									// deepest node visited (root is 0)
+		long nanos;										// how long the query took (0 if metrics are disabled)
+		private long start;								// when the query started
+		private int active;								// how many queries are running (> 1 if one is nested in another's visitor)
+		private final AtomicLongArray latencies = new AtomicLongArray(BUCKETS);	// this thread's count of queries per latency bucket
+
+		public long getNodesVisited() {
+			return nodes;
+		}
+
+		public long getRectangleTests() {
+			return rectangleTests;
+		}
+
+		public long getPointTests() {
+			return pointTests;
+		}
+
+		public long getHits() {
+			return hits;
+		}
+
+		public int getMaxDepth() {
+			return maxDepth;
+		}
+
+		public long getNanos() {
+			return nanos;
+		}
+
+		/**
+		 * Notes a visit to a node at the depth
+		 */
+		void visit(int depth) {
+			nodes++;
+			if (depth > maxDepth) maxDepth = depth;
+		}
+
+		public String toString() {
+			return nodes+" nodes (to depth "+maxDepth+"), "+rectangleTests+" rectangle tests, "+pointTests+" point tests, "
+					+hits+" hits, "+nanos+" ns";
+		}
+	}
+
+	/**
+	 * The totals at some moment
+	 */
+	public static class Snapshot {
+		private final long queries, nodes, rectangleTests, pointTests, hits, totalNanos;
+		private final int maxDepth;
+		private final long[] latencies;			// count per histogram bucket
+		private final long ticks, buildNanos, queryNanos;
+
+		private Snapshot(QuadtreeMetrics m) {
+			queries = m.queries.sum(); nodes = m.nodes.sum();
+			rectangleTests = m.rectangleTests.sum(); pointTests = m.pointTests.sum(); hits = m.hits.sum();
+			totalNanos = m.queryNanos.sum();
+			maxDepth = (int)m.maxDepth.get();
+			latencies = m.latencies();
+			ticks = m.ticks.sum(); buildNanos = m.tickBuildNanos.sum(); queryNanos = m.tickQueryNanos.sum();
+		}
+
+		public long getQueries() {
+			return queries;
+		}
+
+		public long getNodesVisited() {
+			return nodes;
+		}
+
+		public long getRectangleTests() {
+			return rectangleTests;
+		}
+
+		public long getPointTests() {
+			return pointTests;
+		}
+
+		public long getHits() {
+			return hits;
+		}
+
+		public int getMaxDepth() {
+			return maxDepth;
+		}
+
+		public double getMeanQueryNanos() {
+			return queries == 0 ? 0 : (double)totalNanos / queries;
+		}
+
+		/**
+		 * Returns the query latency below which the given fraction of queries fall (to within 12.5%)
+		 * @param fraction	e.g., 0.5 for the median, 0.99 for the 99th percentile
+		 */
+		public long getQueryNanosPercentile(double fraction) {
+			long total = 0;
+			for (long c : latencies) total += c;
+			if (total == 0) return 0;
+			long rank = (long)Math.ceil(fraction * total), seen = 0;
+			for (int b = 0; b < BUCKETS; b++) {
+				seen += latencies[b];
+				if (seen >= Math.max(rank, 1)) return bucketTop(b);
+			}
+			return bucketTop(BUCKETS - 1);
+		}
+
+		public long getTicks() {
+			return ticks;
+		}
+
+		public double getMeanTickBuildNanos() {
+			return ticks == 0 ? 0 : (double)buildNanos / ticks;
+		}
+
+		public double getMeanTickQueryNanos() {
+			return ticks == 0 ? 0 : (double)queryNanos / ticks;
+		}
+
+		public String toString() {
+			return String.format("%d queries: %.1f nodes, %.1f rectangle tests, %.1f point tests, %.1f hits each, max depth %d; "
+					+"latency mean %.0f ns, median %d ns, p99 %d ns; %d ticks: build %.0f ns, query %.0f ns each",
+					queries, per(nodes), per(rectangleTests), per(pointTests), per(hits), maxDepth,
+					getMeanQueryNanos(), getQueryNanosPercentile(0.5), getQueryNanosPercentile(0.99),
+					ticks, getMeanTickBuildNanos(), getMeanTickQueryNanos());
+		}
+
+		private double per(long total) {
+			return queries == 0 ? 0 : (double)total / queries;
+		}
+	}
+
+	/**
+	 * A thread's latency histogram, kept until the thread is gone
+	 */
+	private static class Histogram {
+		private final WeakReference<Thread> owner;		// the thread whose probe writes the counts
+		private final AtomicLongArray counts;
+
+		private Histogram(Thread owner, AtomicLongArray counts) {
+			this.owner = new WeakReference<Thread>(owner);
+			this.counts = counts;
+		}
+
+		// Whether the owner has ended, so won't count any more (it's been collected if the reference is cleared)
+		private boolean retired() {
+			Thread t = owner.get();
+			return t == null || !t.isAlive();
+		}
+	}
+
+	private static final int SUB_BITS = 3;				// each power of two is split into 2^SUB_BITS buckets
+	private static final int BUCKETS = 64 << SUB_BITS;
+	private static final QuadtreeMetrics metrics = new QuadtreeMetrics();
+	private static final ThreadLocal<Probe> probes = ThreadLocal.withInitial(() -> {
+		Probe p = new Probe();
+		metrics.track(p.latencies);
+		return p;
+	});
+
+	private volatile boolean enabled = false;			// whether to time and total queries (tests are always counted in the probe)
+	private final LongAdder queries = new LongAdder(), nodes = new LongAdder();
+	private final LongAdder rectangleTests = new LongAdder(), pointTests = new LongAdder(), hits = new LongAdder();
+	private final LongAdder queryNanos = new LongAdder();
+	private final LongAccumulator maxDepth = new LongAccumulator(Math::max, 0);
+	private final Queue<Histogram> histograms = new ConcurrentLinkedQueue<Histogram>();	// every live thread's probe's latency counts
+	private final long[] retired = new long[BUCKETS];	// the latency counts of threads that have ended (guarded by this)
+	private volatile long[] latencyBaseline = new long[BUCKETS];	// the histograms' sums as of the last reset
+	private final LongAdder ticks = new LongAdder(), tickBuildNanos = new LongAdder(), tickQueryNanos = new LongAdder();
+
+	private QuadtreeMetrics() {
+	}
+
+	/**
+	 * The metrics (there's just one set, for the whole program)
+	 */
+	public static QuadtreeMetrics get() {
+		return metrics;
+	}
+
+	/**
+	 * The calling thread's most recently finished query's numbers (until it starts another)
+	 */
+	public static Probe lastQuery() {
+		return probes.get();
+	}
+
+	/**
+	 * Starts a query on the calling thread, clearing its probe
+	 */
+	static Probe start() {
+		Probe p = probes.get();
+		if (p.active++ > 0) return p;		// nested: counts as part of the outer query
+		p.nodes = p.rectangleTests = p.pointTests = p.hits = p.nanos = 0;
+		p.maxDepth = 0;
+		p.start = metrics.enabled ? System.nanoTime() : 0;
+		return p;
+	}
+
+	/**
+	 * Finishes the query, adding its numbers to the totals
+	 */
+	static void finish(Probe p) {
+		finish(p, 1);
+	}
+
+	/**
+	 * Finishes a batch of queries answered together, adding its numbers to the totals as that many queries,
+	 * each taking an equal share of the batch's time
+	 */
+	static void finish(Probe p, int queries) {
+		if (--p.active > 0 || !metrics.enabled || p.start == 0 || queries <= 0) return;	// (or if it was enabled mid-query)
+		p.nanos = System.nanoTime() - p.start;
+		metrics.queries.add(queries);
+		metrics.nodes.add(p.nodes);
+		metrics.rectangleTests.add(p.rectangleTests);
+		metrics.pointTests.add(p.pointTests);
+		metrics.hits.add(p.hits);
+		metrics.maxDepth.accumulate(p.maxDepth);
+		metrics.queryNanos.add(p.nanos);
+		// Only this thread writes its histogram, so an ordered store is enough for snapshots to see the count
+		int b = bucket(p.nanos / queries);
+		p.latencies.lazySet(b, p.latencies.get(b) + queries);
+	}
+
+	/**
+	 * Records one tick of the collision loop
+	 * @param buildNanos	time spent moving the blobs and updating any index of them
+	 * @param queryNanos	time spent finding the collisions
+	 */
+	public void recordTick(long buildNanos, long queryNanos) {
+		if (!enabled) return;
+		ticks.increment();
+		tickBuildNanos.add(buildNanos);
+		tickQueryNanos.add(queryNanos);
+	}
+
+	/**
+	 * Returns the totals as of now (while any queries in progress keep adding to the live ones)
+	 */
+	public Snapshot snapshot() {
+		return new Snapshot(this);
+	}
+
+	/**
+	 * Makes the totals visible over JMX, as quadtree:type=QuadtreeMetrics
+	 */
+	public void register() throws JMException {
+		ObjectName name = new ObjectName("quadtree:type=QuadtreeMetrics");
+		if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+		}
+	}
+
+	public void reset() {
+		queries.reset(); nodes.reset(); rectangleTests.reset(); pointTests.reset(); hits.reset();
+		queryNanos.reset(); maxDepth.reset();
+		latencyBaseline = sumHistograms();
+		ticks.reset(); tickBuildNanos.reset(); tickQueryNanos.reset();
+	}
+
+	// MBean attributes
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public long getQueries() {
+		return queries.sum();
+	}
+
+	public long getNodesVisited() {
+		return nodes.sum();
+	}
+
+	public long getRectangleTests() {
+		return rectangleTests.sum();
+	}
+
+	public long getPointTests() {
+		return pointTests.sum();
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public int getMaxDepth() {
+		return (int)maxDepth.get();
+	}
+
+	public double getMeanQueryNanos() {
+		return snapshot().getMeanQueryNanos();
+	}
+
+	public long getMedianQueryNanos() {
+		return snapshot().getQueryNanosPercentile(0.5);
+	}
+
+	public long getP99QueryNanos() {
+		return snapshot().getQueryNanosPercentile(0.99);
+	}
+
+	public long getMaxQueryNanos() {
+		return snapshot().getQueryNanosPercentile(1);
+	}
+
+	public long getTicks() {
+		return ticks.sum();
+	}
+
+	public double getMeanTickBuildNanos() {
+		return snapshot().getMeanTickBuildNanos();
+	}
+
+	public double getMeanTickQueryNanos() {
+		return snapshot().getMeanTickQueryNanos();
+	}
+
+	// The count of queries per latency bucket since the last reset
+	private long[] latencies() {
+		long[] counts = sumHistograms(), baseline = latencyBaseline;
+		for (int b = 0; b < BUCKETS; b++) counts[b] -= baseline[b];
+		return counts;
+	}
+
+	// Add up all the threads' histograms, the ended ones' via the retired total
+	private synchronized long[] sumHistograms() {
+		retire();
+		long[] counts = retired.clone();
+		for (Histogram h : histograms) {
+			for (int b = 0; b < BUCKETS; b++) counts[b] += h.counts.get(b);
+		}
+		return counts;
+	}
+
+	// Start including a new thread's histogram (first clearing out any ended threads', so they don't accumulate)
+	private synchronized void track(AtomicLongArray counts) {
+		retire();
+		histograms.add(new Histogram(Thread.currentThread(), counts));
+	}
+
+	// Fold the histograms of threads that have ended into the retired total, and drop them
+	// (a thread's end happens-before seeing it isn't alive, so its last counts are all there)
+	private synchronized void retire() {
+		for (Iterator<Histogram> it = histograms.iterator(); it.hasNext(); ) {
+			Histogram h = it.next();
+			if (!h.retired()) continue;
+			for (int b = 0; b < BUCKETS; b++) retired[b] += h.counts.get(b);
+			it.remove();
+		}
+	}
+
+	// How many threads' histograms are being kept separately (for testing that ended threads' are folded away)
+	int trackedThreads() {
+		return histograms.size();
+	}
+
+	// Histogram bucket for a latency: which power of two it's in, then which eighth of that
+	private static int bucket(long nanos) {
+		if (nanos < (1 << SUB_BITS)) return (int)Math.max(nanos, 0);
+		int exp = 63 - Long.numberOfLeadingZeros(nanos);
+		int sub = (int)(nanos >>> (exp - SUB_BITS)) & ((1 << SUB_BITS) - 1);
+		return ((exp - SUB_BITS + 1) << SUB_BITS) + sub;
+	}
+
+	// The largest latency that goes in the bucket
+	private static long bucketTop(int b) {
+		if (b < (1 << SUB_BITS)) return b;
+		int exp = (b >>> SUB_BITS) + SUB_BITS - 1, sub = b & ((1 << SUB_BITS) - 1);
+		if (exp >= 62) return Long.MAX_VALUE;
+		return ((long)((1 << SUB_BITS) + sub + 1) << (exp - SUB_BITS)) - 1;
+	}
+}
@@ -0,0 +1,25 @@
+/**
+ * The JMX view of QuadtreeMetrics (e.g., in jconsole or VisualVM, under "quadtree"): totals since the last reset
+ */
+public interface QuadtreeMetricsMBean {
+	public boolean isEnabled();
+	public void setEnabled(boolean enabled);
+
+	public long getQueries();
+	public long getNodesVisited();
+	public long getRectangleTests();
+	public long getPointTests();
+	public long getHits();
+	public int getMaxDepth();
+
+	public double getMeanQueryNanos();
+	public long getMedianQueryNanos();
+	public long getP99QueryNanos();
+	public long getMaxQueryNanos();
+
+	public long getTicks();
+	public double getMeanTickBuildNanos();
+	public double getMeanTickQueryNanos();
+
+	public void reset();
+}
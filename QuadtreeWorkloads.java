@@ -0,0 +1,150 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.function.LongSupplier;
+
+/**
+ * The workloads that the benchmarks (in benchmarks/, run with JMH) time: the quadtree operations and collision detection,
+ * over points in each of several distributions (uniform, clustered, and sorted by position).
+ * Each workload returns something that depends on all of its work, for the benchmark to hand to a Blackhole
+ * so the JIT can't throw the work away.
+ * They live here, beside the code they exercise, because the benchmark classes can't: JMH won't generate its harness
+ * for classes in the unnamed package, and classes in a named package can't refer to ones in the unnamed package
+ * except by reflection, which is how the benchmarks get hold of workloads().
+ */
+public class QuadtreeWorkloads {
+	private static final double SPACING = 25;			// average distance between points, so density is the same at every size
+	private static final double RADIUS = 5;				// blob radius for the collision workloads
+	private static final int QUERIES = 1000;			// queries per run of a query workload
+
+	/**
+	 * Sets up all the workloads on n points in the distribution.
+	 * One run of a workload is n inserts ("insert"), one build of n points ("build", "linear build"), QUERIES queries
+	 * ("findInCircle ...", "countInCircle ...", "size"), one step of n blobs ("step ..."), or finding all n blobs' collisions
+	 * ("colliders ..."), so compare times per run within a workload, not across them.
+	 * Inserting sorted points one at a time degenerates into a list, which takes quadratic time (and deep recursion),
+	 * so "insert" is left out for sorted points beyond 10k.
+	 * @param dist	"uniform", "clustered", or "sorted"
+	 * @return		the workloads by name, in a sensible order to run them
+	 */
+	public static Map<String, LongSupplier> workloads(String dist, int n) {
+		if (!dist.equals("uniform") && !dist.equals("clustered") && !dist.equals("sorted")) {
+			throw new IllegalArgumentException("unknown distribution "+dist);
+		}
+		final Map<String, LongSupplier> workloads = new LinkedHashMap<String, LongSupplier>();
+		final double size = Math.sqrt(n) * SPACING;		// width and height of the universe
+		final List<Blob> blobs = points(dist, n, size, new Random(n));
+		final PointQuadtree<Blob> tree = PointQuadtree.build(blobs, 0, 0, size, size);
+		final Random random = new Random(42);
+		final double[] qx = new double[QUERIES], qy = new double[QUERIES];
+		for (int i = 0; i < QUERIES; i++) {
+			Blob b = blobs.get(random.nextInt(n));
+			qx[i] = b.getX(); qy[i] = b.getY();
+		}
+		final double small = SPACING, large = size / 10;	// a handful of points, vs. ~3% of the universe
+
+		// Inserting sorted points one at a time degenerates into a list, which takes quadratic time (and deep recursion)
+		if (!dist.equals("sorted") || n <= 10000) {
+			workloads.put("insert", () -> {
+				PointQuadtree<Blob> t = new PointQuadtree<Blob>(blobs.get(0), 0, 0, size, size);
+				for (int i = 1; i < n; i++) t.insert(blobs.get(i));
+				return t.size();
+			});
+		}
+		workloads.put("build", () -> PointQuadtree.build(blobs, 0, 0, size, size).size());
+		workloads.put("linear build", () -> LinearQuadtree.build(blobs, 0, 0, size, size).size());
+		workloads.put("findInCircle small", () -> {
+			long hits = 0;
+			for (int i = 0; i < QUERIES; i++) hits += tree.findInCircle(qx[i], qy[i], small).size();
+			return hits;
+		});
+		workloads.put("findInCircle large", () -> {
+			long hits = 0;
+			for (int i = 0; i < QUERIES; i++) hits += tree.findInCircle(qx[i], qy[i], large).size();
+			return hits;
+		});
+		workloads.put("countInCircle small", () -> {
+			long hits = 0;
+			for (int i = 0; i < QUERIES; i++) hits += tree.countInCircle(qx[i], qy[i], small);
+			return hits;
+		});
+		workloads.put("allPoints", () -> tree.allPoints().size());
+		workloads.put("size", () -> {
+			long total = 0;
+			for (int i = 0; i < QUERIES; i++) total += tree.size();
+			return total;
+		});
+
+		// Moving all the blobs one step: Bouncer objects vs. a BlobArray of the same bouncers
+		final List<Bouncer> bouncers = new ArrayList<Bouncer>();
+		final BlobArray array = new BlobArray(n, new SplittableRandom(42));
+		for (Blob b : blobs) {
+			bouncers.add(new Bouncer(b.getX(), b.getY(), (int)size, (int)size));
+			array.addBouncer(b.getX(), b.getY(), (int)size, (int)size);
+		}
+		workloads.put("step objects", () -> {
+			for (Bouncer b : bouncers) b.step();
+			return (long)bouncers.get(0).getX();
+		});
+		workloads.put("step array", () -> {
+			array.stepAll();
+			return (long)array.getX(0);
+		});
+
+		// Finding all colliding blobs, as CollisionGUI does each frame, with each broad phase
+		final CollisionDetector detector = new CollisionDetector();
+		workloads.put("colliders sweep", () -> detector.findColliders(blobs).size());
+		final SpatialHashGrid<Blob> grid = new SpatialHashGrid<Blob>(0, 0, size, size, 2 * RADIUS);
+		workloads.put("colliders grid", () -> {
+			grid.clear();
+			for (Blob b : blobs) grid.insert(b);
+			final long[] pairs = new long[1];
+			grid.forEachNeighborPair(2 * RADIUS, (i, j) -> pairs[0]++);
+			return pairs[0];
+		});
+		workloads.put("colliders quadtree", () -> {
+			PointQuadtree<Blob> t = PointQuadtree.build(blobs, 0, 0, size, size);
+			double[] xs = new double[n], ys = new double[n], rs = new double[n];
+			for (int i = 0; i < n; i++) {
+				xs[i] = blobs.get(i).getX(); ys[i] = blobs.get(i).getY(); rs[i] = 2 * RADIUS;
+			}
+			final int[] found = new int[n];
+			t.findInCircles(xs, ys, rs, (i, other) -> found[i]++);
+			long colliders = 0;
+			for (int f : found) if (f > 1) colliders++;
+			return colliders;
+		});
+		return workloads;
+	}
+
+	// n blobs in a size x size universe: uniform, in gaussian clusters, or uniform but sorted by x then y
+	private static List<Blob> points(String dist, int n, double size, Random random) {
+		Blob[] blobs = new Blob[n];
+		if (dist.equals("clustered")) {
+			int clusters = Math.max(1, n / 10000 + 4);
+			double[] cx = new double[clusters], cy = new double[clusters];
+			for (int c = 0; c < clusters; c++) {
+				cx[c] = random.nextDouble() * size; cy[c] = random.nextDouble() * size;
+			}
+			for (int i = 0; i < n; i++) {
+				int c = random.nextInt(clusters);
+				double x = cx[c] + random.nextGaussian() * size / 50, y = cy[c] + random.nextGaussian() * size / 50;
+				blobs[i] = new Blob(Math.max(0, Math.min(size, x)), Math.max(0, Math.min(size, y)), RADIUS);
+			}
+		}
+		else {
+			for (int i = 0; i < n; i++) {
+				blobs[i] = new Blob(random.nextDouble() * size, random.nextDouble() * size, RADIUS);
+			}
+			if (dist.equals("sorted")) {
+				Arrays.sort(blobs, Comparator.comparingDouble(Blob::getX).thenComparingDouble(Blob::getY));
+			}
+		}
+		return new ArrayList<Blob>(Arrays.asList(blobs));
+	}
+}
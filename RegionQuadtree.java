@@ -0,0 +1,346 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+
+/**
+ * A bucketed region quadtree: splits its rectangle at the midpoint into four equal quadrants,
+ * and stores up to a fixed number of points in each leaf before splitting it.
+ * Unlike PointQuadtree, its shape depends only on where the points are, not the order they arrive in,
+ * and it needs far fewer nodes (one per bucket rather than one per point).
+ * Quadrants are numbered as in PointQuadtree: 1 upper-left, 2 upper-right, 3 lower-left, 4 lower-right.
+ */
+public class RegionQuadtree<E extends Point2D> implements PointIndex<E> {
+	public static final int DEFAULT_CAPACITY = 16;	// points per leaf, if not specified
+	private static final int MAX_DEPTH = 32;		// below this, leaves just grow (e.g., many copies of the same point)
+
+	private double x1, y1;							// upper-left corner of the region
+	private double x2, y2;							// bottom-right corner of the region
+	private int capacity;							// how many points a leaf holds before splitting
+	private int depth;								// how far down from the root (0 for root)
+	private int size;								// number of points here and in descendants
+	private Object[] points;						// a leaf's points, in [0,size); null once split
+	private RegionQuadtree<E> c1, c2, c3, c4;		// children, all null in a leaf
+
+	/**
+	 * Initializes an empty quadtree over the rectangle, with the default leaf capacity
+	 */
+	public RegionQuadtree(double x1, double y1, double x2, double y2) {
+		this(x1, y1, x2, y2, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Initializes an empty quadtree over the rectangle
+	 * @param capacity	how many points a leaf holds before splitting (e.g., 8-64)
+	 */
+	public RegionQuadtree(double x1, double y1, double x2, double y2, int capacity) {
+		this(x1, y1, x2, y2, capacity, 0);
+	}
+
+	private RegionQuadtree(double x1, double y1, double x2, double y2, int capacity, int depth) {
+		if (capacity < 1) throw new IllegalArgumentException("leaf capacity must be positive, not "+capacity);
+		this.x1 = x1; this.y1 = y1; this.x2 = x2; this.y2 = y2;
+		this.capacity = capacity;
+		this.depth = depth;
+		this.points = new Object[capacity];
+	}
+
+	// Getters
+
+	public double getX1() {
+		return x1;
+	}
+
+	public double getY1() {
+		return y1;
+	}
+
+	public double getX2() {
+		return x2;
+	}
+
+	public double getY2() {
+		return y2;
+	}
+
+	/**
+	 * Returns whether or not this node holds its points directly (rather than in children)
+	 */
+	public boolean isLeaf() {
+		return points != null;
+	}
+
+	/**
+	 * Returns the child (if any) at the given quadrant, 1-4
+	 * @param quadrant	1 through 4
+	 */
+	public RegionQuadtree<E> getChild(int quadrant) {
+		if (quadrant==1) return c1;
+		if (quadrant==2) return c2;
+		if (quadrant==3) return c3;
+		if (quadrant==4) return c4;
+		return null;
+	}
+
+	/**
+	 * Inserts the point into the tree
+	 */
+	@SuppressWarnings("unchecked")
+	public void insert(E p2) {
+		size++;
+		if (points == null) {
+			childFor(p2.getX(), p2.getY()).insert(p2);
+		}
+		else if (size <= points.length) {
+			points[size-1] = p2;
+		}
+		else if (depth < MAX_DEPTH) {
+			// Full: split, handing the points down to the new children
+			Object[] old = points;
+			points = null;
+			double mx = (x1 + x2) / 2, my = (y1 + y2) / 2;
+			c1 = new RegionQuadtree<E>(x1, y1, mx, my, capacity, depth+1);
+			c2 = new RegionQuadtree<E>(mx, y1, x2, my, capacity, depth+1);
+			c3 = new RegionQuadtree<E>(x1, my, mx, y2, capacity, depth+1);
+			c4 = new RegionQuadtree<E>(mx, my, x2, y2, capacity, depth+1);
+			for (Object p : old) {
+				childFor(((E)p).getX(), ((E)p).getY()).insert((E)p);
+			}
+			childFor(p2.getX(), p2.getY()).insert(p2);
+		}
+		else {
+			// Too deep to split usefully, so just make room
+			Object[] grown = new Object[points.length * 2];
+			System.arraycopy(points, 0, grown, 0, points.length);
+			points = grown;
+			points[size-1] = p2;
+		}
+	}
+
+	/**
+	 * Finds the number of points in the quadtree (including its descendants)
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Builds a list of all the points in the quadtree (including its descendants)
+	 */
+	public List<E> allPoints() {
+		List<E> all = new ArrayList<E>(size);
+		collect(all);
+		return all;
+	}
+
+	/**
+	 * Uses the quadtree to find all points within the circle
+	 * @param cx	circle center x
+	 * @param cy  	circle center y
+	 * @param cr  	circle radius
+	 * @return    	the points in the circle (and the qt's rectangle)
+	 */
+	public List<E> findInCircle(double cx, double cy, double cr) {
+		List<E> hits = new ArrayList<E>();
+		findInCircle(cx, cy, cr, hits);
+		return hits;
+	}
+
+	/**
+	 * Uses the quadtree to find all points within the circle, adding them to the caller's collection
+	 * @param cx	circle center x
+	 * @param cy  	circle center y
+	 * @param cr  	circle radius
+	 * @param out	where to add the points in the circle (and the qt's rectangle)
+	 */
+	@SuppressWarnings("unchecked")
+	public void findInCircle(double cx, double cy, double cr, Collection<? super E> out) {
+		if (size == 0 || !Geometry.circleIntersectsRectangle(cx, cy, cr, x1, y1, x2, y2)) return;
+		if (points != null) {
+			for (int i = 0; i < size; i++) {
+				E p = (E)points[i];
+				if (Geometry.pointInCircle(p.getX(), p.getY(), cx, cy, cr)) out.add(p);
+			}
+		}
+		else {
+			c1.findInCircle(cx, cy, cr, out);
+			c2.findInCircle(cx, cy, cr, out);
+			c3.findInCircle(cx, cy, cr, out);
+			c4.findInCircle(cx, cy, cr, out);
+		}
+	}
+
+	/**
+	 * Uses the quadtree to find all points within the circle, handing each one to the visitor
+	 * @param cx		circle center x
+	 * @param cy  		circle center y
+	 * @param cr  		circle radius
+	 * @param visitor	called with each point in the circle (and the qt's rectangle)
+	 */
+	@SuppressWarnings("unchecked")
+	public void findInCircle(double cx, double cy, double cr, Consumer<? super E> visitor) {
+		if (size == 0 || !Geometry.circleIntersectsRectangle(cx, cy, cr, x1, y1, x2, y2)) return;
+		if (points != null) {
+			for (int i = 0; i < size; i++) {
+				E p = (E)points[i];
+				if (Geometry.pointInCircle(p.getX(), p.getY(), cx, cy, cr)) visitor.accept(p);
+			}
+		}
+		else {
+			c1.findInCircle(cx, cy, cr, visitor);
+			c2.findInCircle(cx, cy, cr, visitor);
+			c3.findInCircle(cx, cy, cr, visitor);
+			c4.findInCircle(cx, cy, cr, visitor);
+		}
+	}
+
+	/**
+	 * Counts the points within the circle, without building a list of them
+	 * @param cx	circle center x
+	 * @param cy  	circle center y
+	 * @param cr  	circle radius
+	 * @return		how many points are in the circle (and the qt's rectangle)
+	 */
+	public int countInCircle(double cx, double cy, double cr) {
+		return countInCircle(cx, cy, cr, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Counts the points within the circle, stopping early once the limit is reached
+	 * @param cx	circle center x
+	 * @param cy  	circle center y
+	 * @param cr  	circle radius
+	 * @param limit	stop searching after this many hits
+	 * @return		how many points are in the circle (and the qt's rectangle), at most limit
+	 */
+	@SuppressWarnings("unchecked")
+	public int countInCircle(double cx, double cy, double cr, int limit) {
+		int count = 0;
+		if (limit <= 0 || size == 0 || !Geometry.circleIntersectsRectangle(cx, cy, cr, x1, y1, x2, y2)) return 0;
+		if (points != null) {
+			for (int i = 0; i < size && count < limit; i++) {
+				E p = (E)points[i];
+				if (Geometry.pointInCircle(p.getX(), p.getY(), cx, cy, cr)) count++;
+			}
+		}
+		else {
+			if (count < limit) count += c1.countInCircle(cx, cy, cr, limit - count);
+			if (count < limit) count += c2.countInCircle(cx, cy, cr, limit - count);
+			if (count < limit) count += c3.countInCircle(cx, cy, cr, limit - count);
+			if (count < limit) count += c4.countInCircle(cx, cy, cr, limit - count);
+		}
+		return count;
+	}
+
+	public void findInCircles(double[] cx, double[] cy, double[] cr, ResultSink<? super E> sink) {
+		int n = cx.length;
+		if (cy.length != n || cr.length != n) throw new IllegalArgumentException("need the same number of x's, y's, and r's");
+		for (int i = 0; i < n; i++) {
+			final int query = i;
+			findInCircle(cx[i], cy[i], cr[i], (E p) -> sink.accept(query, p));
+		}
+	}
+
+	/**
+	 * Uses the quadtree to find all points within the region (a circle, rectangle, convex polygon, ...)
+	 */
+	public List<E> findIn(Geometry.Region region) {
+		List<E> hits = new ArrayList<E>();
+		findIn(region, hits);
+		return hits;
+	}
+
+	/**
+	 * Uses the quadtree to find all points within the region, adding them to the caller's collection
+	 */
+	@SuppressWarnings("unchecked")
+	public void findIn(Geometry.Region region, Collection<? super E> out) {
+		if (size == 0 || !region.intersectsRect(x1, y1, x2, y2)) return;
+		if (points != null) {
+			for (int i = 0; i < size; i++) {
+				E p = (E)points[i];
+				if (region.containsPoint(p.getX(), p.getY())) out.add(p);
+			}
+		}
+		else if (region.containsRect(x1, y1, x2, y2)) {
+			collect(out);
+		}
+		else {
+			c1.findIn(region, out);
+			c2.findIn(region, out);
+			c3.findIn(region, out);
+			c4.findIn(region, out);
+		}
+	}
+
+	/**
+	 * Finds the k points closest to the location, best-first: nodes are explored in order of how close their
+	 * rectangles come to it, stopping once the next is farther away than the k-th best point found so far
+	 * @return		the k nearest points (or all of them, if there are fewer), nearest first
+	 */
+	@SuppressWarnings("unchecked")
+	public List<E> kNearest(double x, double y, int k) {
+		List<E> result = new ArrayList<E>();
+		if (k <= 0 || size == 0) return result;
+		PriorityQueue<PointQuadtree.Candidate<RegionQuadtree<E>>> frontier = new PriorityQueue<PointQuadtree.Candidate<RegionQuadtree<E>>>();
+		PriorityQueue<PointQuadtree.Candidate<E>> best = new PriorityQueue<PointQuadtree.Candidate<E>>(k + 1, Collections.reverseOrder());
+		frontier.add(new PointQuadtree.Candidate<RegionQuadtree<E>>(this, Geometry.pointRectangleDistanceSquared(x, y, x1, y1, x2, y2)));
+		while (!frontier.isEmpty()) {
+			PointQuadtree.Candidate<RegionQuadtree<E>> next = frontier.poll();
+			if (best.size() == k && next.dist2 > best.peek().dist2) break;
+			RegionQuadtree<E> node = next.item;
+			if (node.points != null) {
+				for (int i = 0; i < node.size; i++) {
+					E p = (E)node.points[i];
+					double dx = p.getX() - x, dy = p.getY() - y;
+					double d2 = dx*dx + dy*dy;
+					if (best.size() < k) {
+						best.add(new PointQuadtree.Candidate<E>(p, d2));
+					}
+					else if (d2 < best.peek().dist2) {
+						best.poll();
+						best.add(new PointQuadtree.Candidate<E>(p, d2));
+					}
+				}
+			}
+			else {
+				for (int q = 1; q <= 4; q++) {
+					RegionQuadtree<E> c = node.getChild(q);
+					if (c.size == 0) continue;
+					double cd2 = Geometry.pointRectangleDistanceSquared(x, y, c.x1, c.y1, c.x2, c.y2);
+					if (best.size() < k || cd2 <= best.peek().dist2) {
+						frontier.add(new PointQuadtree.Candidate<RegionQuadtree<E>>(c, cd2));
+					}
+				}
+			}
+		}
+		while (!best.isEmpty()) result.add(best.poll().item);
+		Collections.reverse(result);
+		return result;
+	}
+
+	// Find the child whose quadrant a position belongs in; ties on the midlines go to the lower-numbered quadrant
+	private RegionQuadtree<E> childFor(double px, double py) {
+		boolean left = px <= (x1 + x2) / 2, top = py <= (y1 + y2) / 2;
+		if (left && top) return c1;
+		if (top) return c2;
+		if (left) return c3;
+		return c4;
+	}
+
+	// Add all the points here and in descendants to the collection
+	@SuppressWarnings("unchecked")
+	private void collect(Collection<? super E> out) {
+		if (points != null) {
+			for (int i = 0; i < size; i++) out.add((E)points[i]);
+		}
+		else {
+			c1.collect(out);
+			c2.collect(out);
+			c3.collect(out);
+			c4.collect(out);
+		}
+	}
+}
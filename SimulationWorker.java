@@ -0,0 +1,202 @@
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Runs a collision simulation on its own thread, so a viewer never waits for a tick (moving the blobs, building
+ * any tree, and finding the colliders).
+ * After each tick the worker copies what there is to show into a new immutable Frame and swaps it in as the
+ * latest, atomically; the viewer draws whichever frame is latest when it paints, in time proportional to the
+ * number of blobs but independent of how long the ticks take.
+ * The simulation itself is only ever touched by the worker thread: anything else that wants to change it
+ * (adding blobs, changing the broad phase, etc.) submits a command, which the worker runs before its next tick.
+ * If a tick throws, the worker reports it, keeps it for getError, and stops, leaving the last good frame up;
+ * the next command submitted starts it up again, running that command (and any others waiting) before ticking,
+ * in case they fix whatever went wrong.
+ */
+public class SimulationWorker {
+	/**
+	 * What the simulation looked like after one tick: each blob's position and radius, and whether it was a collider
+	 */
+	public static class Frame {
+		private final long tick;					// how many ticks the simulation had run
+		private final double[] xs, ys, rs;			// blob i is at (xs[i],ys[i]) with radius rs[i]
+		private final boolean[] colliders;			// whether blob i collided
+
+		private Frame(CollisionSimulation sim) {
+			List<Blob> blobs = sim.getBlobs(), collided = sim.getColliders();
+			int n = blobs.size();
+			tick = sim.getTicks();
+			xs = new double[n]; ys = new double[n]; rs = new double[n];
+			colliders = new boolean[n];
+			// The colliders are in the same order as the blobs, so one pass matches them up
+			int c = 0;
+			for (int i = 0; i < n; i++) {
+				Blob blob = blobs.get(i);
+				xs[i] = blob.getX(); ys[i] = blob.getY(); rs[i] = blob.getR();
+				if (c < collided.size() && collided.get(c) == blob) {
+					colliders[i] = true;
+					c++;
+				}
+			}
+		}
+
+		public long getTick() {
+			return tick;
+		}
+
+		public int size() {
+			return xs.length;
+		}
+
+		public double getX(int i) {
+			return xs[i];
+		}
+
+		public double getY(int i) {
+			return ys[i];
+		}
+
+		public double getR(int i) {
+			return rs[i];
+		}
+
+		public boolean isCollider(int i) {
+			return colliders[i];
+		}
+	}
+
+	private final CollisionSimulation sim;			// only touched by the worker thread, once started
+	private final Queue<Consumer<CollisionSimulation>> commands = new ConcurrentLinkedQueue<Consumer<CollisionSimulation>>();	// to run before the next tick
+	private final AtomicReference<Frame> latest;	// the most recent tick's frame
+	private final Runnable afterTick;				// called on the worker thread after each frame is published (may be null)
+	private volatile long stepNanos;				// how often to tick
+	private volatile Throwable error;				// what stopped the worker, if a tick failed (else null)
+	private Thread thread;							// the worker (null if not running)
+
+	/**
+	 * @param sim			the simulation to run; don't touch it from any other thread once the worker starts
+	 * @param stepNanos		how often to tick
+	 * @param afterTick		called on the worker thread after each tick's frame is out (e.g., to ask a viewer to repaint),
+	 * 						and once more if a tick fails; may be null
+	 */
+	public SimulationWorker(CollisionSimulation sim, long stepNanos, Runnable afterTick) {
+		this.sim = sim;
+		this.stepNanos = stepNanos;
+		this.afterTick = afterTick;
+		latest = new AtomicReference<Frame>(new Frame(sim));
+	}
+
+	/**
+	 * The most recently finished tick's frame (safe to call from any thread)
+	 */
+	public Frame getFrame() {
+		return latest.get();
+	}
+
+	/**
+	 * What a tick threw to stop the worker, or null if it hasn't failed (safe to call from any thread)
+	 */
+	public Throwable getError() {
+		return error;
+	}
+
+	public long getStepNanos() {
+		return stepNanos;
+	}
+
+	/**
+	 * Sets how often to tick, from the next tick on (safe to call from any thread)
+	 */
+	public void setStepNanos(long stepNanos) {
+		this.stepNanos = stepNanos;
+	}
+
+	/**
+	 * Has the worker run the command on the simulation before its next tick, after any previously submitted
+	 * (safe to call from any thread). If a failed tick has stopped the worker, this starts it again.
+	 */
+	public void submit(Consumer<CollisionSimulation> command) {
+		commands.add(command);
+		if (error != null) restart();
+	}
+
+	/**
+	 * Starts ticking, on a new (daemon) thread
+	 */
+	public synchronized void start() {
+		if (thread != null && thread.isAlive()) throw new IllegalStateException("already running");
+		error = null;
+		thread = new Thread(this::run, "simulation");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stops ticking, waiting for the current tick to finish; afterwards it's safe to look at the simulation again
+	 */
+	public synchronized void stop() throws InterruptedException {
+		if (thread == null) return;
+		thread.interrupt();
+		thread.join();
+		thread = null;
+	}
+
+	// Start the worker again after a failed tick stopped it (unless something else already has)
+	private synchronized void restart() {
+		if (error == null || thread == null) return;		// (not if it's since been stopped on purpose)
+		try {
+			thread.join();		// it may still be on its way out
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return;
+		}
+		start();
+	}
+
+	/**
+	 * The worker's loop: run the waiting commands, tick, publish the frame, then wait for the next tick's time
+	 * (if a tick runs long, the following ones run back to back until caught up, as in CollisionSimulation.run).
+	 * A tick that throws ends the loop: the simulation may be half updated, so ticking on could only make it worse.
+	 */
+	private void run() {
+		long next = System.nanoTime();
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				Consumer<CollisionSimulation> command;
+				while ((command = commands.poll()) != null) {
+					try {
+						command.accept(sim);
+					}
+					catch (RuntimeException | Error e) {
+						// A bad command shouldn't stop the simulation
+						System.err.println("simulation command failed:");
+						e.printStackTrace();
+					}
+				}
+				try {
+					sim.tick();
+				}
+				catch (RuntimeException | Error e) {
+					error = e;
+					System.err.println("simulation stopped at tick "+sim.getTicks()+":");
+					e.printStackTrace();
+					if (afterTick != null) afterTick.run();		// so a viewer can show it
+					return;
+				}
+				latest.set(new Frame(sim));
+				if (afterTick != null) afterTick.run();
+				next += stepNanos;
+				long wait = next - System.nanoTime();
+				if (wait > 0) Thread.sleep(wait / 1000000, (int)(wait % 1000000));
+				else if (wait < -stepNanos * 10) next = System.nanoTime();	// hopelessly behind (e.g., stepNanos shrank): don't try to catch up
+			}
+		}
+		catch (InterruptedException e) {
+			// stopped
+		}
+	}
+}
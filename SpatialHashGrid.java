@@ -0,0 +1,213 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * A uniform grid over a rectangle, with square cells of a fixed size: each point is filed under the cell it falls in
+ * (points outside the rectangle go in the nearest edge cell).
+ * With the cell size about the query radius, a circle query or a neighbor search only has to look at a few cells.
+ * Everything is kept in flat arrays indexed by insertion order, and clear() keeps them for reuse,
+ * so refilling the grid every tick allocates nothing once it has grown to size.
+ */
+public class SpatialHashGrid<E extends Point2D> {
+	/**
+	 * Handed the indices (in insertion order) of each pair of nearby points
+	 */
+	public interface PairVisitor {
+		public void visit(int i, int j);
+	}
+
+	private static final int NONE = -1;		// end of a cell's list
+
+	private double x1, y1;					// upper-left corner of the region
+	private double cellSize;				// width and height of each cell
+	private int cols, rows;					// number of cells across and down
+	private int[] heads;					// index of the first point in each cell, or NONE
+	private Object[] items;					// the points, in insertion order
+	private double[] xs, ys;				// their coordinates when inserted
+	private int[] next;						// index of the next point in the same cell, or NONE
+	private int[] cellOf;					// which cell each point is in
+	private int size;						// number of points, in indices [0,size)
+
+	/**
+	 * Initializes an empty grid over the rectangle
+	 * @param cellSize	width and height of each cell; about the collision/query radius works well
+	 */
+	public SpatialHashGrid(double x1, double y1, double x2, double y2, double cellSize) {
+		if (!(cellSize > 0)) throw new IllegalArgumentException("cell size must be positive, not "+cellSize);
+		this.x1 = x1; this.y1 = y1;
+		this.cellSize = cellSize;
+		cols = Math.max(1, (int)Math.ceil((x2 - x1) / cellSize));
+		rows = Math.max(1, (int)Math.ceil((y2 - y1) / cellSize));
+		heads = new int[cols * rows];
+		Arrays.fill(heads, NONE);
+		items = new Object[16];
+		xs = new double[16]; ys = new double[16];
+		next = new int[16]; cellOf = new int[16];
+	}
+
+	public double getCellSize() {
+		return cellSize;
+	}
+
+	/**
+	 * Finds the number of points in the grid
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns point i, 0 through size()-1, in insertion order
+	 */
+	@SuppressWarnings("unchecked")
+	public E get(int i) {
+		return (E)items[i];
+	}
+
+	/**
+	 * Inserts the point into the grid, at its current position
+	 * @return	its index, for get() and pair enumeration
+	 */
+	public int insert(E p) {
+		if (size == items.length) {
+			int capacity = 2 * size;
+			items = Arrays.copyOf(items, capacity);
+			xs = Arrays.copyOf(xs, capacity); ys = Arrays.copyOf(ys, capacity);
+			next = Arrays.copyOf(next, capacity); cellOf = Arrays.copyOf(cellOf, capacity);
+		}
+		int i = size++;
+		double x = p.getX(), y = p.getY();
+		int cell = row(y) * cols + col(x);
+		items[i] = p;
+		xs[i] = x; ys[i] = y;
+		cellOf[i] = cell;
+		next[i] = heads[cell];
+		heads[cell] = i;
+		return i;
+	}
+
+	/**
+	 * Empties the grid, keeping its arrays for reuse; takes time proportional to the number of points, not cells
+	 */
+	public void clear() {
+		for (int i = 0; i < size; i++) {
+			heads[cellOf[i]] = NONE;
+			items[i] = null;
+		}
+		size = 0;
+	}
+
+	/**
+	 * Uses the grid to find all points within the circle
+	 * @param cx	circle center x
+	 * @param cy  	circle center y
+	 * @param cr  	circle radius
+	 * @return    	the points in the circle
+	 */
+	public List<E> findInCircle(double cx, double cy, double cr) {
+		List<E> hits = new ArrayList<E>();
+		findInCircle(cx, cy, cr, hits);
+		return hits;
+	}
+
+	/**
+	 * Uses the grid to find all points within the circle, adding them to the caller's collection
+	 * @param cx	circle center x
+	 * @param cy  	circle center y
+	 * @param cr  	circle radius
+	 * @param out	where to add the points in the circle
+	 */
+	public void findInCircle(double cx, double cy, double cr, Collection<? super E> out) {
+		findInCircle(cx, cy, cr, (Consumer<E>)out::add);
+	}
+
+	/**
+	 * Uses the grid to find all points within the circle, handing each one to the visitor
+	 * @param cx		circle center x
+	 * @param cy  		circle center y
+	 * @param cr  		circle radius
+	 * @param visitor	called with each point in the circle
+	 */
+	@SuppressWarnings("unchecked")
+	public void findInCircle(double cx, double cy, double cr, Consumer<? super E> visitor) {
+		int colLo = col(cx - cr), colHi = col(cx + cr), rowLo = row(cy - cr), rowHi = row(cy + cr);
+		for (int r = rowLo; r <= rowHi; r++) {
+			for (int c = colLo; c <= colHi; c++) {
+				for (int i = heads[r * cols + c]; i != NONE; i = next[i]) {
+					if (Geometry.pointInCircle(xs[i], ys[i], cx, cy, cr)) visitor.accept((E)items[i]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Counts the points within the circle, stopping early once the limit is reached
+	 * @param cx	circle center x
+	 * @param cy  	circle center y
+	 * @param cr  	circle radius
+	 * @param limit	stop searching after this many hits
+	 * @return		how many points are in the circle, at most limit
+	 */
+	public int countInCircle(double cx, double cy, double cr, int limit) {
+		int count = 0;
+		int colLo = col(cx - cr), colHi = col(cx + cr), rowLo = row(cy - cr), rowHi = row(cy + cr);
+		for (int r = rowLo; r <= rowHi; r++) {
+			for (int c = colLo; c <= colHi; c++) {
+				for (int i = heads[r * cols + c]; i != NONE; i = next[i]) {
+					if (count >= limit) return count;
+					if (Geometry.pointInCircle(xs[i], ys[i], cx, cy, cr)) count++;
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Counts the points within the circle
+	 */
+	public int countInCircle(double cx, double cy, double cr) {
+		return countInCircle(cx, cy, cr, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Finds every pair of points within the distance of each other, handing each pair to the visitor once
+	 * (as indices, smaller first). Cheapest when the distance is at most the cell size,
+	 * so that only the neighboring cells need to be checked.
+	 * @param dist		how close two points must be (inclusive)
+	 * @param visitor	called with each nearby pair
+	 */
+	public void forEachNeighborPair(double dist, PairVisitor visitor) {
+		int reach = Math.max(1, (int)Math.ceil(dist / cellSize));		// how many cells away a neighbor can be
+		double dist2 = dist * dist;
+		for (int i = 0; i < size; i++) {
+			int col = cellOf[i] % cols, row = cellOf[i] / cols;
+			int colLo = Math.max(0, col - reach), colHi = Math.min(cols - 1, col + reach);
+			int rowLo = Math.max(0, row - reach), rowHi = Math.min(rows - 1, row + reach);
+			for (int r = rowLo; r <= rowHi; r++) {
+				for (int c = colLo; c <= colHi; c++) {
+					for (int j = heads[r * cols + c]; j != NONE; j = next[j]) {
+						// Report each pair only from its smaller index
+						if (j <= i) continue;
+						double dx = xs[i] - xs[j], dy = ys[i] - ys[j];
+						if (dx*dx + dy*dy <= dist2) visitor.visit(i, j);
+					}
+				}
+			}
+		}
+	}
+
+	// Which column an x coordinate falls in, clamped to the grid
+	private int col(double x) {
+		int c = (int)Math.floor((x - x1) / cellSize);
+		return c < 0 ? 0 : c >= cols ? cols - 1 : c;
+	}
+
+	// Which row a y coordinate falls in, clamped to the grid
+	private int row(double y) {
+		int r = (int)Math.floor((y - y1) / cellSize);
+		return r < 0 ? 0 : r >= rows ? rows - 1 : r;
+	}
+}
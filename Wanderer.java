@@ -1,3 +1,5 @@
+import java.util.concurrent.ThreadLocalRandom;
+
 /**
  * A blob that moves randomly.
  */
@@ -13,8 +15,10 @@ public class Wanderer extends Blob {
 	@Override
 	public void step() {
 		// Choose a new step between -1 and +1 in each of x and y
-		dx = 2 * (Math.random()-0.5);
-		dy = 2 * (Math.random()-0.5);
+		// (from this thread's generator, rather than contending with every other wanderer for Math.random's)
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		dx = 2 * (random.nextDouble()-0.5);
+		dy = 2 * (random.nextDouble()-0.5);
 		x += dx;
 		y += dy;
 	}
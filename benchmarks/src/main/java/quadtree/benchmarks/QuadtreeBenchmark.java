@@ -0,0 +1,61 @@
+package quadtree.benchmarks;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Times each of QuadtreeWorkloads' workloads, for each distribution of points and each size, to catch performance regressions.
+ * One benchmark op is one run of the workload (see QuadtreeWorkloads.workloads for how much work that is);
+ * add -prof gc for the bytes allocated per op.
+ * The workloads are looked up by name: QuadtreeWorkloads is in the unnamed package, which can't be imported.
+ * "insert" is timed by QuadtreeInsertBenchmark instead, since it can't run on every combination here.
+ * Setting up 10M points takes about 3.5 GB of heap, and a run that builds another tree up to 1.5 GB more,
+ * so each fork gets 8 GB; on a smaller machine, leave 10M out with -p n=1000,10000,100000,1000000.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 2, jvmArgsAppend = "-Xmx8g")
+public class QuadtreeBenchmark {
+	@Param({"uniform", "clustered", "sorted"})
+	public String dist;
+
+	@Param({"1000", "10000", "100000", "1000000", "10000000"})
+	public int n;
+
+	@Param({"build", "linear build", "findInCircle small", "findInCircle large", "countInCircle small",
+			"allPoints", "size", "step objects", "step array", "colliders sweep", "colliders grid", "colliders quadtree"})
+	public String workload;
+
+	private LongSupplier run;		// one run of the workload
+
+	@Setup
+	@SuppressWarnings("unchecked")
+	public void setUp() throws ReflectiveOperationException {
+		Map<String, LongSupplier> workloads = (Map<String, LongSupplier>)Class.forName("QuadtreeWorkloads")
+				.getMethod("workloads", String.class, int.class).invoke(null, dist, n);
+		run = workloads.get(workload);
+		if (run == null) throw new IllegalStateException("no "+workload+" workload for "+n+" "+dist+" points");
+	}
+
+	@Benchmark
+	public void run(Blackhole blackhole) {
+		blackhole.consume(run.getAsLong());
+	}
+}
@@ -0,0 +1,55 @@
+package quadtree.benchmarks;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Times QuadtreeWorkloads' "insert" workload (n inserts one at a time), as QuadtreeBenchmark does the others.
+ * Sorted points degenerate into a list (quadratic), so QuadtreeWorkloads has no "insert" for them beyond 10k;
+ * the distribution and size are one parameter here, listing just the combinations that exist,
+ * so that the default run has no failing setups.
+ * 10M points need about 3.5 GB of heap, as in QuadtreeBenchmark.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 2, jvmArgsAppend = "-Xmx8g")
+public class QuadtreeInsertBenchmark {
+	@Param({"uniform 1000", "uniform 10000", "uniform 100000", "uniform 1000000", "uniform 10000000",
+			"clustered 1000", "clustered 10000", "clustered 100000", "clustered 1000000", "clustered 10000000",
+			"sorted 1000", "sorted 10000"})
+	public String points;		// distribution and n
+
+	private LongSupplier run;		// one run of the workload
+
+	@Setup
+	@SuppressWarnings("unchecked")
+	public void setUp() throws ReflectiveOperationException {
+		String[] parts = points.split(" ");
+		Map<String, LongSupplier> workloads = (Map<String, LongSupplier>)Class.forName("QuadtreeWorkloads")
+				.getMethod("workloads", String.class, int.class).invoke(null, parts[0], Integer.parseInt(parts[1]));
+		run = workloads.get("insert");
+		if (run == null) throw new IllegalStateException("no insert workload for "+points+" points");
+	}
+
+	@Benchmark
+	public void run(Blackhole blackhole) {
+		blackhole.consume(run.getAsLong());
+	}
+}